@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import co.aikar.db.AsyncDbStatement.Priority;
+import org.intellij.lang.annotations.Language;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind layer in front of {@link AsyncDbQueue} for updates where only the latest value matters.
+ * <p/>
+ * An update is held for the coalescing delay before being queued. If another update with the same
+ * coalescing key arrives meanwhile, it replaces the held one, and the futures of both complete
+ * with the result of the update that actually ran.
+ */
+class AsyncDbCoalescer {
+    private static final Map<Object, Pending> pending = new ConcurrentHashMap<>();
+    private static long delayMillis = 250;
+
+    static void start(DbOptions options) {
+        delayMillis = options.getAsyncCoalesceDelayMillis();
+    }
+
+    static CompletableFuture<Integer> submit(Object key, Priority priority, @Language("MySQL") String query, Object... params) {
+        if (key == null) {
+            throw new IllegalArgumentException("Coalescing key must not be null");
+        }
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        Pending[] created = {null};
+        pending.compute(key, (k, existing) -> {
+            if (existing == null) {
+                existing = created[0] = new Pending(k);
+            }
+            existing.query = query;
+            existing.params = params;
+            existing.priority = priority;
+            existing.futures.add(future);
+            return existing;
+        });
+        if (created[0] != null) {
+            schedule(created[0]);
+        }
+        return future;
+    }
+
+    /**
+     * Queues every held update right away.
+     */
+    static void flush() {
+        for (Pending held : pending.values()) {
+            flush(held);
+        }
+    }
+
+    private static void schedule(Pending held) {
+        ScheduledExecutorService scheduler = DB.getScheduledExecutor();
+        if (scheduler == null || delayMillis <= 0) {
+            flush(held);
+            return;
+        }
+        scheduler.schedule(() -> flush(held), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void flush(Pending held) {
+        if (!pending.remove(held.key, held)) {
+            return;
+        }
+        // The coalescing key doubles as the ordering key, so successive flushes for a key stay in order
+        new AsyncDbUpdate(held.query, held.key, held.priority, held.params).submit().whenComplete((count, e) -> {
+            for (CompletableFuture<Integer> future : held.futures) {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else {
+                    future.complete(count);
+                }
+            }
+        });
+    }
+
+    private static class Pending {
+        private final Object key;
+        private final List<CompletableFuture<Integer>> futures = new ArrayList<>(1);
+        private String query;
+        private Object[] params;
+        private Priority priority;
+
+        private Pending(Object key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import co.aikar.db.AsyncDbStatement.Priority;
+
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates counter increments in memory and flushes them through {@link AsyncDbQueue} on an interval,
+ * so thousands of increments to the same counter become a single update.
+ * <p/>
+ * Each counter is a striped {@link LongAdder}, so threads incrementing the same hot counter do not contend
+ * on a single value. Cells that stay idle for a whole interval are retired, and any increment that raced
+ * with the retirement is still flushed on the following interval.
+ * Flushed updates sharing the same SQL are queued with it as their ordering key, so they land on the same
+ * lane back to back and the queue sends them as one batch.
+ * <p/>
+ * Increments that fail because the database is temporarily unavailable are kept for the next flush. Once
+ * stopped, they are written to the async queue's spool journal if there is one, and otherwise kept in
+ * memory until the queue is started again.
+ */
+class AsyncDbCounters {
+    private static final Map<Counter, Cell> cells = new ConcurrentHashMap<>();
+    /**
+     * Cells removed from the map on the last flush, checked once more for increments that raced with it.
+     */
+    private static List<Map.Entry<Counter, Cell>> retiring = new ArrayList<>();
+    private static ScheduledFuture<?> task;
+    private static volatile boolean stopped = false;
+
+    static synchronized void start(DbOptions options) {
+        if (task != null) {
+            task.cancel(false);
+        }
+        stopped = false;
+        ScheduledExecutorService scheduler = DB.getScheduledExecutor();
+        long interval = options.getAsyncCounterFlushMillis();
+        task = scheduler.scheduleWithFixedDelay(AsyncDbCounters::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        stopped = true;
+        flush();
+        // Nothing runs a later flush, so retired cells are drained now
+        flush();
+    }
+
+    static void add(String table, String column, String idColumn, Object id, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        add(new Counter(table, column, idColumn, id), delta);
+    }
+
+    private static void add(Counter counter, long delta) {
+        cells.computeIfAbsent(counter, k -> new Cell()).adder.add(delta);
+    }
+
+    /**
+     * Queues one update per counter that changed since the last flush.
+     */
+    static synchronized void flush() {
+        Map<String, List<Object[]>> updates = new HashMap<>();
+        for (Map.Entry<Counter, Cell> entry : retiring) {
+            long delta = entry.getValue().take();
+            if (delta != 0) {
+                updates.computeIfAbsent(entry.getKey().sql(), k -> new ArrayList<>()).add(new Object[]{entry.getKey(), delta});
+            }
+        }
+        retiring = new ArrayList<>();
+        for (Map.Entry<Counter, Cell> entry : cells.entrySet()) {
+            Counter counter = entry.getKey();
+            Cell cell = entry.getValue();
+            long delta = cell.take();
+            if (delta == 0) {
+                if (cell.idle && cells.remove(counter, cell)) {
+                    retiring.add(entry);
+                }
+                cell.idle = true;
+                continue;
+            }
+            cell.idle = false;
+            updates.computeIfAbsent(counter.sql(), k -> new ArrayList<>()).add(new Object[]{counter, delta});
+        }
+
+        for (Map.Entry<String, List<Object[]>> entry : updates.entrySet()) {
+            String sql = entry.getKey();
+            for (Object[] update : entry.getValue()) {
+                Counter counter = (Counter) update[0];
+                long delta = (Long) update[1];
+                new AsyncDbUpdate(sql, sql, Priority.NORMAL, delta, counter.id).submit().whenComplete((count, e) -> {
+                    // Keep the increment if the database was only temporarily unavailable
+                    if (e instanceof SQLTransientException || e instanceof SQLRecoverableException) {
+                        if (!stopped || !AsyncDbQueue.journal(new AsyncDbUpdate(sql, sql, Priority.NORMAL, delta, counter.id))) {
+                            add(counter, delta);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * A counter's increments, and how much of them has been flushed. Only flush reads and moves the
+     * watermark, which unlike {@link LongAdder#sumThenReset()} never loses an increment made concurrently.
+     */
+    private static class Cell {
+        private final LongAdder adder = new LongAdder();
+        private long flushed = 0;
+        private boolean idle = false;
+
+        private long take() {
+            long sum = adder.sum();
+            long delta = sum - flushed;
+            flushed = sum;
+            return delta;
+        }
+    }
+
+    private static class Counter {
+        private final String table;
+        private final String column;
+        private final String idColumn;
+        private final Object id;
+        private final int hash;
+
+        private Counter(String table, String column, String idColumn, Object id) {
+            if (table == null || column == null || idColumn == null || id == null) {
+                throw new IllegalArgumentException("Table, columns and id must not be null");
+            }
+            this.table = table;
+            this.column = column;
+            this.idColumn = idColumn;
+            this.id = id;
+            this.hash = Objects.hash(table, column, idColumn, id);
+        }
+
+        private String sql() {
+            return "UPDATE " + table + " SET " + column + " = " + column + " + ? WHERE " + idColumn + " = ?";
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Counter)) {
+                return false;
+            }
+            Counter other = (Counter) o;
+            return hash == other.hash && table.equals(other.table) && column.equals(other.column)
+                    && idColumn.equals(other.idColumn) && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -23,52 +23,868 @@
 
 package co.aikar.db;
 
+import co.aikar.db.AsyncDbStatement.Priority;
+import co.aikar.db.DbOptions.OverflowPolicy;
+import co.aikar.db.DbOptions.PriorityMode;
+
+import java.io.File;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Dispatches queued {@link AsyncDbStatement}s on one or more worker lanes.
+ * <p/>
+ * Each lane owns a dedicated thread and drains its own queue on its own connection. Statements with an
+ * ordering key are always routed to the same lane so they run in the order they were queued, while
+ * statements without one are routed by their SQL, so updates sharing it stay together and can be batched.
+ * Statements with neither are spread across the lanes round robin.
+ * <p/>
+ * A lane parks while its queue is empty and is unparked by {@link #queue(AsyncDbStatement)},
+ * so statements start as soon as they are queued instead of waiting for a polling interval.
+ * An optional linger window delays the drain after a wake up so bursts are processed together.
+ * <p/>
+ * Consecutive updates queued through {@link DB#executeUpdateAsync(String, Object...)} with identical SQL
+ * are sent as one JDBC batch instead of one round trip each, and with group commit enabled consecutive
+ * updates are committed together in one transaction.
+ * <p/>
+ * The queue capacity is split evenly across the lanes. What happens to a statement queued on a full lane
+ * is decided by the configured {@link OverflowPolicy}.
+ * <p/>
+ * Within a lane, statements wait in one queue per {@link Priority} and are taken according to the
+ * configured {@link PriorityMode}.
+ * <p/>
+ * With a spool directory configured, updates are moved to the {@link AsyncDbSpool} journal instead of being
+ * held on heap while the database is unreachable, or when shutdown runs past its timeout, and are replayed
+ * in order once a connection is available again, including after a restart.
+ */
 class AsyncDbQueue implements Runnable {
-    private static final Queue<AsyncDbStatement> queue = new ConcurrentLinkedQueue<>();
-    private static final Lock lock = new ReentrantLock();
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toNanos(1);
+    private static final AtomicInteger nextLane = new AtomicInteger();
+    private static volatile AsyncDbQueue[] lanes = {new AsyncDbQueue(0, Integer.MAX_VALUE)};
+    private static volatile boolean running = false;
+    private static long lingerNanos = 0;
+    private static int batchSize = 1;
+    private static int groupCommitSize = 1;
+    private static int chunkSize = 1;
+    private static OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private static volatile AsyncDbSpool spool;
+    private static volatile boolean outage = false;
+    private static volatile long deadline = 0;
+    private static PriorityMode priorityMode = PriorityMode.STRICT;
+    private static int[] priorityWeights = {8, 4, 1};
+    private static int maxStarvation = 64;
+
+    private final int id;
+    private final int capacity;
+    private final ArrayDeque<AsyncDbStatement>[] queues = newQueues();
+    private final int[] starvation = new int[queues.length];
+    private final int[] credits = new int[queues.length];
+    private final Lock queueLock = new ReentrantLock();
+    private final Condition notFull = queueLock.newCondition();
+    private volatile int size = 0;
+
+    private final Lock lock = new ReentrantLock();
+    private final ArrayDeque<AsyncDbStatement> pending = new ArrayDeque<>();
+    /**
+     * Updates of the current drain that lost their connection mid-execution, to be spooled once it stops.
+     */
+    private final ArrayDeque<AsyncDbStatement> lost = new ArrayDeque<>();
+    private DbStatement dbStatement;
+    private volatile Thread thread;
+    private volatile boolean parked = false;
+
+    private AsyncDbQueue(int id, int capacity) {
+        this.id = id;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Starts the worker lanes.
+     *
+     * @param options
+     */
+    static synchronized void start(DbOptions options) {
+        if (running) {
+            return;
+        }
+        lingerNanos = TimeUnit.MILLISECONDS.toNanos(options.getAsyncLingerMillis());
+        batchSize = options.getAsyncBatchSize();
+        groupCommitSize = options.getAsyncGroupCommitSize();
+        chunkSize = Math.max(batchSize, groupCommitSize);
+        overflowPolicy = options.getAsyncOverflowPolicy();
+        priorityMode = options.getAsyncPriorityMode();
+        priorityWeights = options.getAsyncPriorityWeights();
+        maxStarvation = options.getAsyncMaxStarvation();
+        File directory = options.getAsyncSpoolDirectory();
+        if (directory == null && overflowPolicy == OverflowPolicy.SPILL) {
+            throw new IllegalArgumentException("The SPILL overflow policy requires a spool directory");
+        }
+        if (directory != null && spool == null) {
+            // Picks up anything left by the previous run, which the lanes replay before newer updates
+            spool = new AsyncDbSpool(directory);
+        }
+
+        int laneCount = options.getAsyncLanes();
+        int capacity = options.getAsyncQueueCapacity() > 0
+                ? Math.max(1, (options.getAsyncQueueCapacity() + laneCount - 1) / laneCount)
+                : Integer.MAX_VALUE;
+        AsyncDbQueue[] previous = lanes;
+        AsyncDbQueue[] started = new AsyncDbQueue[laneCount];
+        for (int i = 0; i < started.length; i++) {
+            started[i] = new AsyncDbQueue(i, capacity);
+        }
+        lanes = started;
+        // Anything queued before initialize (or after the last close) is handed to the new lanes
+        for (AsyncDbQueue lane : previous) {
+            List<AsyncDbStatement> statements = new ArrayList<>();
+            lane.takeChunk(statements, Integer.MAX_VALUE);
+            for (AsyncDbStatement stm : statements) {
+                started[laneIndex(stm, started.length)].add(stm);
+            }
+        }
+
+        running = true;
+        for (AsyncDbQueue lane : started) {
+            Thread thread = new Thread(lane);
+            thread.setName("DbAsyncQueue Lane " + lane.id);
+            lane.thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the worker lanes, waiting for any drain in progress to finish.
+     * Statements still queued afterwards can be flushed with {@link #processQueue()}.
+     */
+    static synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (AsyncDbQueue lane : lanes) {
+            lane.signalNotFull();
+            LockSupport.unpark(lane.thread);
+        }
+        for (AsyncDbQueue lane : lanes) {
+            try {
+                lane.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            lane.thread = null;
+        }
+    }
+
+    /**
+     * Stops the worker lanes and flushes everything still queued or spooled on the calling thread.
+     * <p/>
+     * Updates that could not be sent before the timeout, or because the database is unreachable, are kept
+     * in the spool journal for the next run if there is one. Anything else left is failed.
+     *
+     * @param timeoutMillis How long to keep flushing, 0 for no limit
+     */
+    static synchronized void shutdown(long timeoutMillis) {
+        // Set first, so lanes still draining when stopped give up at the deadline too
+        deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0;
+        stop();
+        try {
+            processQueue();
+            for (AsyncDbQueue lane : lanes) {
+                lane.spoolQueued();
+            }
+            // Closed before failing the rest, so replayed updates among them stay in the journal
+            closeSpool();
+            for (AsyncDbQueue lane : lanes) {
+                List<AsyncDbStatement> remaining = new ArrayList<>();
+                lane.takeChunk(remaining, Integer.MAX_VALUE);
+                for (AsyncDbStatement stm : remaining) {
+                    stm.onError(new SQLTransientException("Async queue was shut down before this statement ran"));
+                }
+            }
+        } finally {
+            deadline = 0;
+            closeSpool();
+        }
+    }
+
+    private static void closeSpool() {
+        AsyncDbSpool spool = AsyncDbQueue.spool;
+        if (spool != null) {
+            spool.close();
+            AsyncDbQueue.spool = null;
+        }
+    }
+
+    /**
+     * Number of statements waiting in memory across all lanes.
+     *
+     * @return
+     */
+    static int size() {
+        int total = 0;
+        for (AsyncDbQueue lane : lanes) {
+            total += lane.size;
+        }
+        return total;
+    }
+
+    /**
+     * Number of updates waiting in the spool file.
+     *
+     * @return
+     */
+    static int spooled() {
+        AsyncDbSpool spool = AsyncDbQueue.spool;
+        return spool != null ? spool.size() : 0;
+    }
 
     @Override
     public void run() {
-        processQueue();
+        while (running) {
+            if (size == 0) {
+                if (refillFromSpool()) {
+                    continue;
+                }
+                parked = true;
+                // Re-check after publishing parked so a concurrent queue() either sees it or we see its entry
+                if (running && size == 0) {
+                    if (outage && spooled() > 0) {
+                        // Nothing queued to notice the database coming back, so check for it periodically
+                        LockSupport.parkNanos(this, RETRY_DELAY);
+                    } else {
+                        LockSupport.park(this);
+                    }
+                }
+                parked = false;
+                continue;
+            }
+
+            linger();
+            try {
+                if (!drain()) {
+                    LockSupport.parkNanos(this, RETRY_DELAY);
+                }
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
     }
 
-    static void processQueue() {
-        if (queue.isEmpty() || !lock.tryLock()) {
+    private static void linger() {
+        if (lingerNanos <= 0) {
             return;
         }
+        final long deadline = System.nanoTime() + lingerNanos;
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
 
-        AsyncDbStatement stm;
-        DbStatement dbStatement;
+    /**
+     * Drains every lane, and anything spooled, on the calling thread.
+     *
+     * @return false if a connection could not be obtained for one of the lanes
+     */
+    static boolean processQueue() {
+        boolean result;
+        do {
+            result = true;
+            for (AsyncDbQueue lane : lanes) {
+                result &= lane.drain();
+            }
+        } while (result && !pastDeadline() && refillFromSpool());
+        return result;
+    }
+
+    private static boolean pastDeadline() {
+        long deadline = AsyncDbQueue.deadline;
+        return deadline != 0 && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * Drains this lane on a single connection, a chunk at a time.
+     *
+     * @return false if a connection could not be obtained and the queue was left untouched
+     */
+    private boolean drain() {
+        if (size == 0 || !lock.tryLock()) {
+            return true;
+        }
 
         try {
-            dbStatement = new DbStatement();
-        } catch (Exception e) {
+            try {
+                dbStatement = new DbStatement();
+            } catch (Exception e) {
+                e.printStackTrace();
+                outage = true;
+                spoolQueued();
+                return false;
+            }
+            outage = false;
+
+            while (!pastDeadline() && lost.isEmpty() && takeChunk(pending, chunkSize) > 0) {
+                AsyncDbStatement stm;
+                while (lost.isEmpty() && (stm = pending.poll()) != null) {
+                    if (groupCommitSize > 1 && stm instanceof AsyncDbUpdate && pending.peek() instanceof AsyncDbUpdate) {
+                        processGroup(pollGroup((AsyncDbUpdate) stm));
+                    } else if (batchSize > 1 && stm instanceof AsyncDbUpdate && ((AsyncDbUpdate) stm).canBatchWith(pending.peek())) {
+                        processBatch(pollBatch((AsyncDbUpdate) stm));
+                    } else {
+                        process(stm);
+                    }
+                }
+            }
+            return true;
+        } finally {
+            // Only left over if something escaped the per statement handling or the connection was lost,
+            // so they run on the next drain
+            requeue(pending);
+            if (dbStatement != null) {
+                dbStatement.close();
+                dbStatement = null;
+            }
+            if (!lost.isEmpty()) {
+                // Spooled together with everything queued behind them, so the journal keeps their order
+                requeue(lost);
+                outage = true;
+                spoolQueued();
+            }
             lock.unlock();
-            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Gets the connection of the current drain, replacing it if a failed statement closed it.
+     *
+     * @return
+     * @throws SQLException
+     */
+    private DbStatement statement() throws SQLException {
+        if (dbStatement.isClosed()) {
+            dbStatement = new DbStatement();
+        }
+        return dbStatement;
+    }
+
+    private void process(AsyncDbStatement stm) {
+        if (!lost.isEmpty() && AsyncDbSpool.canSpool(stm)) {
+            lost.add(stm);
             return;
         }
+        try {
+            stm.process(statement());
+        } catch (SQLException e) {
+            fail(stm, e);
+        } catch (RuntimeException e) {
+            stm.onError(new SQLException("Async statement failed", e));
+        }
+    }
 
-        while ((stm = queue.poll()) != null) {
-            try {
-                if (dbStatement.isClosed()) {
-                    dbStatement = new DbStatement();
+    /**
+     * Fails a statement, unless the connection was lost while it ran and it can be spooled to run again
+     * once the database is reachable.
+     *
+     * @param stm
+     * @param e
+     */
+    private void fail(AsyncDbStatement stm, SQLException e) {
+        if (spool != null && AsyncDbSpool.canSpool(stm) && isConnectionFailure(e)) {
+            lost.add(stm);
+        } else {
+            stm.onError(e);
+        }
+    }
+
+    private static boolean isConnectionFailure(SQLException e) {
+        if (e instanceof SQLRecoverableException || e instanceof SQLTransientConnectionException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    private List<AsyncDbUpdate> pollGroup(AsyncDbUpdate first) {
+        List<AsyncDbUpdate> group = new ArrayList<>();
+        group.add(first);
+        while (group.size() < groupCommitSize && pending.peek() instanceof AsyncDbUpdate) {
+            group.add((AsyncDbUpdate) pending.poll());
+        }
+        return group;
+    }
+
+    /**
+     * Runs consecutive updates in a single transaction so they share one commit on the server.
+     * Members sharing the same SQL are still sent as JDBC batches inside the transaction.
+     * <p/>
+     * If any member fails the whole transaction is rolled back and every member is replayed on its own
+     * in autocommit mode, isolating the failing statement so the other callers are unaffected.
+     * If the commit itself fails, its outcome is unknown, so every member is failed with that error instead.
+     *
+     * @param group
+     */
+    private void processGroup(List<AsyncDbUpdate> group) {
+        int[] counts = new int[group.size()];
+        try {
+            DbStatement statement = statement();
+            statement.startTransaction();
+            for (int i = 0; i < group.size(); ) {
+                AsyncDbUpdate first = group.get(i);
+                int end = i + 1;
+                while (end < group.size() && end - i < batchSize && first.canBatchWith(group.get(end))) {
+                    end++;
                 }
-                stm.process(dbStatement);
-            } catch (SQLException e) {
-                stm.onError(e);
+                statement.query(first.query);
+                if (end - i == 1) {
+                    counts[i] = statement.executeUpdate(first.params);
+                } else {
+                    for (int j = i; j < end; j++) {
+                        statement.addBatch(group.get(j).params);
+                    }
+                    System.arraycopy(statement.executeBatch(), 0, counts, i, end - i);
+                }
+                i = end;
+            }
+        } catch (SQLException | RuntimeException e) {
+            // Failed executes close the statement, which rolls back
+            if (dbStatement != null) {
+                dbStatement.rollback();
+            }
+            for (AsyncDbUpdate update : group) {
+                process(update);
+            }
+            return;
+        }
+        try {
+            dbStatement.commitOrThrow();
+        } catch (SQLException e) {
+            // The commit may have applied on the server, so replaying could run the members twice. Failed
+            // with an error that is not transient, so nothing retries them either.
+            dbStatement.rollback();
+            dbStatement.close();
+            SQLException failure = new SQLException("Group commit failed, its updates may have been applied", e.getSQLState(), e.getErrorCode(), e);
+            for (AsyncDbUpdate update : group) {
+                update.onError(failure);
+            }
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            group.get(i).complete(counts[i]);
+        }
+    }
+
+    private List<AsyncDbUpdate> pollBatch(AsyncDbUpdate first) {
+        List<AsyncDbUpdate> batch = new ArrayList<>();
+        batch.add(first);
+        while (batch.size() < batchSize && first.canBatchWith(pending.peek())) {
+            batch.add((AsyncDbUpdate) pending.poll());
+        }
+        return batch;
+    }
+
+    /**
+     * Sends consecutive updates sharing the same SQL as a single JDBC batch.
+     * <p/>
+     * If the batch fails, members the driver reports as applied are considered done and the rest are
+     * retried one by one, so each caller still gets its own error through {@link AsyncDbStatement#onError(SQLException)}.
+     *
+     * @param batch
+     */
+    private void processBatch(List<AsyncDbUpdate> batch) {
+        try {
+            DbStatement statement = statement();
+            statement.query(batch.get(0).query);
+            for (AsyncDbUpdate update : batch) {
+                statement.addBatch(update.params);
+            }
+            int[] counts = statement.executeBatch();
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(counts[i]);
+            }
+        } catch (BatchUpdateException e) {
+            int[] counts = e.getUpdateCounts();
+            for (int i = 0; i < batch.size(); i++) {
+                AsyncDbUpdate update = batch.get(i);
+                if (counts != null && i < counts.length && counts[i] != Statement.EXECUTE_FAILED) {
+                    update.complete(counts[i]);
+                } else {
+                    process(update);
+                }
+            }
+        } catch (SQLException e) {
+            for (AsyncDbUpdate update : batch) {
+                fail(update, e);
+            }
+        } catch (RuntimeException e) {
+            // Retried one by one so each caller gets its own outcome
+            for (AsyncDbUpdate update : batch) {
+                process(update);
             }
         }
-        dbStatement.close();
-        lock.unlock();
     }
 
     static boolean queue(AsyncDbStatement stm) {
-        return queue.offer(stm);
+        AsyncDbQueue[] lanes = AsyncDbQueue.lanes;
+        AsyncDbQueue lane = lanes[laneIndex(stm, lanes.length)];
+        AsyncDbSpool spool = AsyncDbQueue.spool;
+        if (spool != null && AsyncDbSpool.canSpool(stm)) {
+            // Once anything is spooled, later updates follow it so they are replayed in order
+            synchronized (spool) {
+                if (spool.isEmpty() && lane.offer(stm, OverflowPolicy.REJECT, false)) {
+                    return true;
+                }
+                if ((!spool.isEmpty() || overflowPolicy == OverflowPolicy.SPILL) && spool.append((AsyncDbUpdate) stm)) {
+                    ((AsyncDbUpdate) stm).complete(Statement.SUCCESS_NO_INFO);
+                    return true;
+                }
+            }
+        }
+        return lane.offer(stm, overflowPolicy, true);
+    }
+
+    /**
+     * Writes an update to the spool journal to be replayed later, for updates that could not be sent
+     * before shutdown.
+     *
+     * @param update
+     * @return false if there is no spool or the update can not be spooled
+     */
+    static boolean journal(AsyncDbUpdate update) {
+        AsyncDbSpool spool = AsyncDbQueue.spool;
+        if (spool == null || !AsyncDbSpool.canSpool(update)) {
+            return false;
+        }
+        synchronized (spool) {
+            if (!spool.append(update)) {
+                return false;
+            }
+        }
+        spool.sync();
+        return true;
+    }
+
+    /**
+     * Moves the updates waiting in this lane into the spool journal, ahead of anything already spooled
+     * since they were queued first. Other statements stay queued.
+     */
+    private void spoolQueued() {
+        AsyncDbSpool spool = AsyncDbQueue.spool;
+        if (spool == null || size == 0) {
+            return;
+        }
+        List<AsyncDbStatement> kept = new ArrayList<>();
+        List<AsyncDbUpdate> spooled = new ArrayList<>();
+        synchronized (spool) {
+            List<AsyncDbStatement> statements = new ArrayList<>();
+            takeChunk(statements, Integer.MAX_VALUE);
+            for (AsyncDbStatement stm : statements) {
+                if (AsyncDbSpool.canSpool(stm)) {
+                    spooled.add((AsyncDbUpdate) stm);
+                } else {
+                    kept.add(stm);
+                }
+            }
+            if (!spool.prepend(spooled)) {
+                kept = statements;
+                spooled.clear();
+            }
+        }
+        spool.sync();
+        for (AsyncDbUpdate update : spooled) {
+            update.complete(Statement.SUCCESS_NO_INFO);
+        }
+        for (AsyncDbStatement stm : kept) {
+            add(stm);
+        }
+    }
+
+    /**
+     * Moves spooled updates back onto the lanes, a chunk per lane at most, so the journal is read in a bounded
+     * window instead of all at once. Nothing is moved while a lane still holds a chunk.
+     * During an outage nothing is moved until a connection can be obtained again.
+     *
+     * @return true if anything was moved
+     */
+    private static boolean refillFromSpool() {
+        AsyncDbSpool spool = AsyncDbQueue.spool;
+        if (spool == null || spool.isEmpty()) {
+            return false;
+        }
+        if (outage) {
+            try (Connection connection = DB.getConnection()) {
+                if (connection == null) {
+                    return false;
+                }
+                outage = false;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+        boolean moved = false;
+        synchronized (spool) {
+            AsyncDbQueue[] lanes = AsyncDbQueue.lanes;
+            for (AsyncDbQueue lane : lanes) {
+                if (lane.size >= chunkSize) {
+                    return false;
+                }
+            }
+            AsyncDbUpdate update;
+            while ((update = spool.poll()) != null) {
+                AsyncDbQueue lane = lanes[laneIndex(update, lanes.length)];
+                lane.add(update);
+                moved = true;
+                if (lane.size >= chunkSize || lane.size > lane.capacity / 2) {
+                    break;
+                }
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Adds a statement to this lane, applying the overflow policy if the lane is full.
+     *
+     * @param stm
+     * @param policy
+     * @param reportRejection Whether a rejected statement should be failed through onError
+     * @return false if the statement was rejected
+     */
+    private boolean offer(AsyncDbStatement stm, OverflowPolicy policy, boolean reportRejection) {
+        AsyncDbStatement dropped = null;
+        SQLException rejection = null;
+        queueLock.lock();
+        try {
+            while (size >= capacity && running && !isLaneThread()) {
+                if (policy == OverflowPolicy.DROP_OLDEST) {
+                    dropped = pollLowest(stm.getPriority());
+                    if (dropped == null) {
+                        rejection = new SQLTransientException("Async queue is full of higher priority statements");
+                    } else {
+                        size--;
+                    }
+                    break;
+                }
+                if (policy != OverflowPolicy.BLOCK && policy != OverflowPolicy.SPILL) {
+                    rejection = new SQLTransientException("Async queue is full");
+                    break;
+                }
+                try {
+                    notFull.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejection = new SQLTransientException("Interrupted while waiting for space in the async queue", e);
+                    break;
+                }
+            }
+            if (rejection == null) {
+                queues[stm.getPriority().ordinal()].addLast(stm);
+                size++;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+        if (rejection != null) {
+            if (reportRejection) {
+                stm.onError(rejection);
+            }
+            return false;
+        }
+        if (dropped != null) {
+            dropped.onError(new SQLTransientException("Dropped from a full async queue"));
+        }
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Adds a statement to this lane regardless of its capacity.
+     *
+     * @param stm
+     */
+    private void add(AsyncDbStatement stm) {
+        queueLock.lock();
+        try {
+            queues[stm.getPriority().ordinal()].addLast(stm);
+            size++;
+        } finally {
+            queueLock.unlock();
+        }
+        if (parked) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Puts statements taken from this lane back at the front of their queues, in the same order.
+     *
+     * @param statements
+     */
+    private void requeue(ArrayDeque<AsyncDbStatement> statements) {
+        if (statements.isEmpty()) {
+            return;
+        }
+        queueLock.lock();
+        try {
+            AsyncDbStatement stm;
+            while ((stm = statements.pollLast()) != null) {
+                queues[stm.getPriority().ordinal()].addFirst(stm);
+                size++;
+            }
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Moves up to max statements from this lane into the given collection, in the order they should run.
+     *
+     * @param out
+     * @param max
+     * @return Number of statements moved
+     */
+    private int takeChunk(Collection<AsyncDbStatement> out, int max) {
+        if (size == 0) {
+            return 0;
+        }
+        queueLock.lock();
+        try {
+            int taken = 0;
+            while (taken < max && size > 0) {
+                out.add(queues[nextPriority()].pollFirst());
+                size--;
+                taken++;
+            }
+            if (taken > 0) {
+                notFull.signalAll();
+            }
+            return taken;
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Picks the priority class to take the next statement from. Must hold the queue lock with size above 0.
+     *
+     * @return
+     */
+    private int nextPriority() {
+        if (priorityMode == PriorityMode.WEIGHTED) {
+            // Smooth weighted round robin over the classes that have statements waiting
+            int total = 0;
+            int best = -1;
+            for (int i = 0; i < queues.length; i++) {
+                if (queues[i].isEmpty()) {
+                    continue;
+                }
+                credits[i] += priorityWeights[i];
+                total += priorityWeights[i];
+                if (best == -1 || credits[i] > credits[best]) {
+                    best = i;
+                }
+            }
+            credits[best] -= total;
+            return best;
+        }
+
+        int top = 0;
+        while (queues[top].isEmpty()) {
+            top++;
+        }
+        for (int i = queues.length - 1; i > top; i--) {
+            if (!queues[i].isEmpty() && starvation[i] >= maxStarvation) {
+                starvation[i] = 0;
+                return i;
+            }
+        }
+        for (int i = top + 1; i < queues.length; i++) {
+            if (!queues[i].isEmpty()) {
+                starvation[i]++;
+            }
+        }
+        starvation[top] = 0;
+        return top;
+    }
+
+    /**
+     * Removes the oldest statement of the lowest priority class that is not above the given one.
+     * Must hold the queue lock.
+     *
+     * @param priority
+     * @return
+     */
+    private AsyncDbStatement pollLowest(Priority priority) {
+        for (int i = queues.length - 1; i >= priority.ordinal(); i--) {
+            if (!queues[i].isEmpty()) {
+                return queues[i].pollFirst();
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static ArrayDeque<AsyncDbStatement>[] newQueues() {
+        ArrayDeque<AsyncDbStatement>[] queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        return queues;
+    }
+
+    private void signalNotFull() {
+        queueLock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * A lane must never wait for space in a queue, since it may be the one that would make room.
+     *
+     * @return
+     */
+    private static boolean isLaneThread() {
+        Thread current = Thread.currentThread();
+        for (AsyncDbQueue lane : lanes) {
+            if (lane.thread == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int laneIndex(AsyncDbStatement stm, int laneCount) {
+        Object key = stm.getOrderingKey();
+        return laneIndex(key != null ? key : stm.query, laneCount);
+    }
+
+    private static int laneIndex(Object key, int laneCount) {
+        if (laneCount == 1) {
+            return 0;
+        }
+        if (key == null) {
+            return (nextLane.getAndIncrement() & Integer.MAX_VALUE) % laneCount;
+        }
+        int hash = key.hashCode();
+        return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % laneCount;
     }
 }
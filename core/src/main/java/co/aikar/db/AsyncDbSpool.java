@@ -0,0 +1,582 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Durable FIFO journal of queued updates, kept in memory mapped segment files in the spool directory.
+ * <p/>
+ * Each record is written as its length, a CRC32 of its payload and the payload itself. Once the update
+ * read back from a record has run or failed, its length is negated in place, so a journal reopened
+ * after a restart or crash replays every record whose update never finished, in the order they were written.
+ * An update that committed just before a crash may therefore run again.
+ * A record whose checksum does not match, such as one torn by a crash, ends its segment.
+ * <p/>
+ * Only {@link AsyncDbUpdate}s whose parameters and ordering key are plain values (strings, numbers, dates,
+ * byte arrays and UUIDs) can be spooled, since they are rebuilt from their SQL and parameters when read back.
+ */
+class AsyncDbSpool {
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int HEADER_SIZE = 8;
+    private static final String PREFIX = "async-queue-";
+    private static final String SUFFIX = ".journal";
+    /**
+     * Segments are numbered from the middle of the range, so records can also be put in front of the journal.
+     */
+    private static final long FIRST_SEQUENCE = Long.MAX_VALUE / 2;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte FLOAT = 5;
+    private static final byte SHORT = 6;
+    private static final byte BYTE = 7;
+    private static final byte BOOLEAN = 8;
+    private static final byte BYTES = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte BIG_INTEGER = 11;
+    private static final byte TIMESTAMP = 12;
+    private static final byte SQL_DATE = 13;
+    private static final byte SQL_TIME = 14;
+    private static final byte DATE = 15;
+    private static final byte UUID_VALUE = 16;
+    private static final byte LOCAL_DATE_TIME = 17;
+    private static final byte LOCAL_DATE = 18;
+    private static final byte LOCAL_TIME = 19;
+
+    private final File directory;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private int size = 0;
+
+    /**
+     * Opens the journal in the given directory, picking up any records left by a previous run.
+     *
+     * @param directory
+     */
+    AsyncDbSpool(File directory) {
+        this.directory = directory;
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            try {
+                long sequence = Long.parseLong(file.getName().substring(PREFIX.length(), file.getName().length() - SUFFIX.length()));
+                Segment segment = new Segment(file, sequence, (int) file.length());
+                segment.scan();
+                if (segment.pending == 0) {
+                    segment.delete();
+                } else {
+                    segments.addLast(segment);
+                    size += segment.pending;
+                }
+            } catch (IOException | NumberFormatException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    static boolean canSpool(AsyncDbStatement stm) {
+        if (!(stm instanceof AsyncDbUpdate) || stm.query == null || !canEncode(stm.getOrderingKey())) {
+            return false;
+        }
+        for (Object param : ((AsyncDbUpdate) stm).params) {
+            if (!canEncode(param)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Appends an update to the end of the journal.
+     *
+     * @param update
+     * @return false if the update could not be written
+     */
+    synchronized boolean append(AsyncDbUpdate update) {
+        try {
+            byte[] record = encode(update);
+            Segment tail = segments.peekLast();
+            if (tail == null || !tail.hasRoom(record.length)) {
+                long sequence = tail != null ? tail.sequence + 1 : FIRST_SEQUENCE;
+                tail = createSegment(sequence, Math.max(SEGMENT_SIZE, HEADER_SIZE + record.length));
+                segments.addLast(tail);
+            }
+            tail.write(record);
+            size++;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Puts updates in front of everything already in the journal, keeping their relative order.
+     *
+     * @param updates
+     * @return false if the updates could not be written
+     */
+    synchronized boolean prepend(List<AsyncDbUpdate> updates) {
+        if (updates.isEmpty()) {
+            return true;
+        }
+        try {
+            byte[][] records = new byte[updates.size()][];
+            int length = 0;
+            for (int i = 0; i < records.length; i++) {
+                records[i] = encode(updates.get(i));
+                length += HEADER_SIZE + records[i].length;
+            }
+            Segment head = segments.peekFirst();
+            Segment segment = createSegment(head != null ? head.sequence - 1 : FIRST_SEQUENCE, length);
+            for (byte[] record : records) {
+                segment.write(record);
+            }
+            segments.addFirst(segment);
+            size += records.length;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Reads the oldest update not yet read from the journal. Its record stays in the journal until the update
+     * completes or fails, so it is replayed again if that never happens before the journal is closed.
+     *
+     * @return The update, not yet queued, or null if the journal has nothing left to read
+     */
+    synchronized AsyncDbUpdate poll() {
+        Iterator<Segment> iterator = segments.iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment.pending == 0) {
+                if (segment.unacked == 0) {
+                    iterator.remove();
+                    segment.delete();
+                }
+                continue;
+            }
+            int position = segment.read();
+            size--;
+            AsyncDbUpdate update;
+            try {
+                update = decode(segment.get(position + HEADER_SIZE, segment.buffer.getInt(position)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                ack(segment, position);
+                return poll();
+            }
+            // Updates losing their connection are journaled again before completing, and other failures are
+            // reported by the update, so the record is done with either way
+            update.getFuture().whenComplete((count, e) -> ack(segment, position));
+            return update;
+        }
+        return null;
+    }
+
+    /**
+     * Marks a record read by {@link #poll()} as consumed, deleting its segment once nothing in it is left.
+     *
+     * @param segment
+     * @param position
+     */
+    private synchronized void ack(Segment segment, int position) {
+        if (segment.closed) {
+            // Left for the next run to replay
+            return;
+        }
+        segment.consume(position);
+        if (segment.pending == 0 && segment.unacked == 0 && segments.remove(segment)) {
+            segment.delete();
+        }
+    }
+
+    /**
+     * Flushes written records to disk.
+     */
+    synchronized void sync() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Flushes and unmaps the journal. Segments still holding records are kept for the next run.
+     */
+    synchronized void close() {
+        Segment segment;
+        while ((segment = segments.pollFirst()) != null) {
+            if (segment.pending == 0 && segment.unacked == 0) {
+                segment.delete();
+            } else {
+                segment.buffer.force();
+                segment.unmap();
+            }
+        }
+        size = 0;
+    }
+
+    private Segment createSegment(long sequence, int length) throws IOException {
+        directory.mkdirs();
+        File file = new File(directory, String.format("%s%019d%s", PREFIX, sequence, SUFFIX));
+        return new Segment(file, sequence, length);
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long sequence;
+        private final MappedByteBuffer buffer;
+        private int readPosition = 0;
+        private int writePosition = 0;
+        /**
+         * Records not read yet.
+         */
+        private int pending = 0;
+        /**
+         * Records read whose update has not finished yet.
+         */
+        private int unacked = 0;
+        private boolean closed = false;
+
+        private Segment(File file, long sequence, int length) throws IOException {
+            this.file = file;
+            this.sequence = sequence;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            }
+        }
+
+        /**
+         * Finds where reading and writing should resume in an existing segment.
+         */
+        private void scan() {
+            int position = 0;
+            boolean reading = true;
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                int size = Math.abs(length);
+                if (length == 0 || length == Integer.MIN_VALUE || position + HEADER_SIZE + size > buffer.capacity()) {
+                    break;
+                }
+                if (length > 0) {
+                    if (checksum(get(position + HEADER_SIZE, size)) != buffer.getInt(position + 4)) {
+                        break;
+                    }
+                    reading = false;
+                    pending++;
+                } else if (reading) {
+                    readPosition = position + HEADER_SIZE + size;
+                }
+                position += HEADER_SIZE + size;
+            }
+            writePosition = position;
+        }
+
+        private boolean hasRoom(int length) {
+            return writePosition + HEADER_SIZE + length <= buffer.capacity();
+        }
+
+        private void write(byte[] record) {
+            int position = writePosition;
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + HEADER_SIZE);
+            target.put(record);
+            buffer.putInt(position + 4, checksum(record));
+            // The length goes last, so a record is only visible once it is complete
+            buffer.putInt(position, record.length);
+            writePosition += HEADER_SIZE + record.length;
+            pending++;
+        }
+
+        /**
+         * Reads the next pending record, skipping records already consumed out of order.
+         * Must have a pending record.
+         *
+         * @return Position of the record
+         */
+        private int read() {
+            int length;
+            while ((length = buffer.getInt(readPosition)) < 0) {
+                readPosition += HEADER_SIZE - length;
+            }
+            int position = readPosition;
+            readPosition += HEADER_SIZE + length;
+            pending--;
+            unacked++;
+            return position;
+        }
+
+        /**
+         * Marks a read record as consumed, so it is not replayed.
+         *
+         * @param position
+         */
+        private void consume(int position) {
+            int length = buffer.getInt(position);
+            if (length > 0) {
+                buffer.putInt(position, -length);
+                unacked--;
+            }
+        }
+
+        private byte[] get(int position, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            source.get(bytes);
+            return bytes;
+        }
+
+        private static int checksum(byte[] record) {
+            CRC32 crc = new CRC32();
+            crc.update(record, 0, record.length);
+            return (int) crc.getValue();
+        }
+
+        private void unmap() {
+            closed = true;
+            DbBuffers.release(buffer);
+        }
+
+        private void delete() {
+            unmap();
+            file.delete();
+        }
+    }
+
+    static byte[] encode(AsyncDbUpdate update) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + update.query.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, update.query);
+        writeValue(out, update.getOrderingKey());
+        out.writeByte(update.getPriority().ordinal());
+        out.writeInt(update.params.length);
+        for (Object param : update.params) {
+            writeValue(out, param);
+        }
+        return bytes.toByteArray();
+    }
+
+    static AsyncDbUpdate decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String query = readString(in);
+        Object orderingKey = readValue(in);
+        AsyncDbStatement.Priority priority = AsyncDbStatement.Priority.values()[in.readByte()];
+        Object[] params = new Object[in.readInt()];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = readValue(in);
+        }
+        return new AsyncDbUpdate(query, orderingKey, priority, params);
+    }
+
+    /**
+     * @param value
+     * @return Whether {@link #writeValue(DataOutput, Object)} can encode the value
+     */
+    static boolean canEncode(Object value) {
+        return value == null || value instanceof String || value instanceof Number && (value instanceof Integer
+                || value instanceof Long || value instanceof Double || value instanceof Float || value instanceof Short
+                || value instanceof Byte || value instanceof BigDecimal || value instanceof BigInteger)
+                || value instanceof Boolean || value instanceof byte[] || value instanceof java.util.Date
+                || value instanceof UUID || value instanceof LocalDateTime || value instanceof LocalDate
+                || value instanceof LocalTime;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a plain value as a type tag followed by its compact binary form.
+     */
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(BYTES);
+            out.writeInt(((byte[]) value).length);
+            out.write((byte[]) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof BigInteger) {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(SQL_TIME);
+            out.writeLong(((Time) value).getTime());
+        } else if (value instanceof java.util.Date) {
+            out.writeByte(DATE);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else if (value instanceof UUID) {
+            out.writeByte(UUID_VALUE);
+            out.writeLong(((UUID) value).getMostSignificantBits());
+            out.writeLong(((UUID) value).getLeastSignificantBits());
+        } else if (value instanceof LocalDateTime) {
+            out.writeByte(LOCAL_DATE_TIME);
+            out.writeLong(((LocalDateTime) value).toLocalDate().toEpochDay());
+            out.writeLong(((LocalDateTime) value).toLocalTime().toNanoOfDay());
+        } else if (value instanceof LocalDate) {
+            out.writeByte(LOCAL_DATE);
+            out.writeLong(((LocalDate) value).toEpochDay());
+        } else if (value instanceof LocalTime) {
+            out.writeByte(LOCAL_TIME);
+            out.writeLong(((LocalTime) value).toNanoOfDay());
+        } else {
+            throw new IOException("Can not encode values of " + value.getClass());
+        }
+    }
+
+    static Object readValue(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case FLOAT:
+                return in.readFloat();
+            case SHORT:
+                return in.readShort();
+            case BYTE:
+                return in.readByte();
+            case BOOLEAN:
+                return in.readBoolean();
+            case BYTES:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return bytes;
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case BIG_INTEGER:
+                return new BigInteger(readString(in));
+            case TIMESTAMP:
+                Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case SQL_TIME:
+                return new Time(in.readLong());
+            case DATE:
+                return new java.util.Date(in.readLong());
+            case UUID_VALUE:
+                return new UUID(in.readLong(), in.readLong());
+            case LOCAL_DATE_TIME:
+                return LocalDateTime.of(LocalDate.ofEpochDay(in.readLong()), LocalTime.ofNanoOfDay(in.readLong()));
+            case LOCAL_DATE:
+                return LocalDate.ofEpochDay(in.readLong());
+            case LOCAL_TIME:
+                return LocalTime.ofNanoOfDay(in.readLong());
+            default:
+                throw new IOException("Unknown spooled value type " + type);
+        }
+    }
+}
@@ -40,16 +40,59 @@ import java.sql.SQLException;
 public abstract class AsyncDbStatement {
     @Language("MySQL")
     protected String query;
+    private final Object orderingKey;
+    private final Priority priority;
     private boolean done = false;
 
     public AsyncDbStatement() {
-        queue(null);
+        this(null, null, Priority.NORMAL);
     }
 
     public AsyncDbStatement(@Language("MySQL") String query) {
+        this(query, null, Priority.NORMAL);
+    }
+
+    public AsyncDbStatement(@Language("MySQL") String query, Priority priority) {
+        this(query, null, priority);
+    }
+
+    /**
+     * Statements sharing an ordering key, such as a player UUID or an entity id, are guaranteed to run
+     * in the order they were queued. Statements with different keys may run in parallel.
+     *
+     * @param query
+     * @param orderingKey Key to order this statement by, or null for no ordering
+     */
+    public AsyncDbStatement(@Language("MySQL") String query, Object orderingKey) {
+        this(query, orderingKey, Priority.NORMAL);
+    }
+
+    /**
+     * Statements sharing an ordering key, such as a player UUID or an entity id, are guaranteed to run
+     * in the order they were queued, as long as they also share the same priority.
+     * Statements with different keys may run in parallel.
+     *
+     * @param query
+     * @param orderingKey Key to order this statement by, or null for no ordering
+     * @param priority    Class this statement is served in by the async queue, null for {@link Priority#NORMAL}
+     */
+    public AsyncDbStatement(@Language("MySQL") String query, Object orderingKey, Priority priority) {
+        this(orderingKey, priority);
         queue(query);
     }
 
+    /**
+     * For internal subclasses that need to finish initializing before being queued.
+     * They must queue themselves once ready.
+     *
+     * @param orderingKey
+     * @param priority
+     */
+    AsyncDbStatement(Object orderingKey, Priority priority) {
+        this.orderingKey = orderingKey;
+        this.priority = priority != null ? priority : Priority.NORMAL;
+    }
+
     /**
      * Schedules this async statement to run on anther thread. This is the only method that should be
      * called on the main thread and it should only be called once.
@@ -61,6 +104,14 @@ public abstract class AsyncDbStatement {
         AsyncDbQueue.queue(this);
     }
 
+    public Object getOrderingKey() {
+        return orderingKey;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
     /**
      * Implement this method with your code that does Async SQL logic.
      *
@@ -78,6 +129,13 @@ public abstract class AsyncDbStatement {
         e.printStackTrace();
     }
 
+    /**
+     * Marks this statement as processed by some other means than {@link #process(DbStatement)}, such as a batch.
+     */
+    synchronized void markDone() {
+        done = true;
+    }
+
     public void process(DbStatement stm) throws SQLException {
         synchronized (this) {
             if (!done) {
@@ -89,4 +147,13 @@ public abstract class AsyncDbStatement {
             }
         }
     }
+
+    /**
+     * Classes the async queue serves statements in, see {@link DbOptions#setAsyncPriorityMode(DbOptions.PriorityMode)}.
+     */
+    public enum Priority {
+        HIGH,
+        NORMAL,
+        LOW
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import org.intellij.lang.annotations.Language;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Async statement that runs a single update with fixed parameters and has no other side effects,
+ * which lets {@link AsyncDbQueue} send consecutive updates sharing the same SQL as one JDBC batch,
+ * and replay or spool them when needed.
+ */
+class AsyncDbUpdate extends AsyncDbStatement {
+    final Object[] params;
+    private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+    /**
+     * Creates the update without queueing it, see {@link #submit()}.
+     *
+     * @param query
+     * @param orderingKey
+     * @param priority
+     * @param params
+     */
+    AsyncDbUpdate(@Language("MySQL") String query, Object orderingKey, Priority priority, Object... params) {
+        super(orderingKey, priority);
+        this.query = query;
+        this.params = params;
+    }
+
+    /**
+     * Queues this update.
+     *
+     * @return Future completed with the number of rows modified, or {@link java.sql.Statement#SUCCESS_NO_INFO}
+     * if the driver did not report it
+     */
+    CompletableFuture<Integer> submit() {
+        AsyncDbQueue.queue(this);
+        return future;
+    }
+
+    CompletableFuture<Integer> getFuture() {
+        return future;
+    }
+
+    @Override
+    protected void run(DbStatement statement) throws SQLException {
+        future.complete(statement.executeUpdate(params));
+    }
+
+    @Override
+    public void onError(SQLException e) {
+        super.onError(e);
+        future.completeExceptionally(e);
+    }
+
+    /**
+     * Marks this update as done by a batch or transaction.
+     *
+     * @param count
+     */
+    void complete(int count) {
+        markDone();
+        future.complete(count);
+    }
+
+    boolean canBatchWith(AsyncDbStatement other) {
+        return other instanceof AsyncDbUpdate && query != null && query.equals(other.query);
+    }
+}
@@ -32,19 +32,26 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.stream.Stream;
 
 public final class DB {
-    private static ThreadPoolExecutor executor;
+    private static ExecutorService executor;
+    private static final AtomicInteger executorActive = new AtomicInteger();
     private static ScheduledExecutorService scheduledExecutor;
     private static HikariDataSource pooledDataSource;
+    private static long shutdownTimeoutMillis = 0;
+    private static int streamFetchSize = Integer.MIN_VALUE;
     private DB() {}
 
     /**
      * Called in onDisable, destroys the Data source and nulls out references.
      */
     public static void close() {
-        AsyncDbQueue.processQueue();
+        AsyncDbCounters.stop();
+        AsyncDbCoalescer.flush();
+        AsyncDbQueue.shutdown(shutdownTimeoutMillis);
         pooledDataSource.close();
         pooledDataSource = null;
     }
@@ -53,13 +60,21 @@ public final class DB {
      * Called in onEnable, initializes the pool and configures it and opens the first connection to spawn the pool.
      */
     public static void initialize(String user, String pass, String db, String hostAndPort) {
+        initialize(user, pass, db, hostAndPort, new DbOptions());
+    }
+
+    public static void initialize(String user, String pass, String db, String hostAndPort, DbOptions options) {
         if (hostAndPort == null) {
             hostAndPort = "localhost:3306";
         }
-        initialize(user, pass, "mysql://" + hostAndPort + "/" + db);
+        initialize(user, pass, "mysql://" + hostAndPort + "/" + db, options);
     }
 
     public static void initialize(String user, String pass, String jdbcUrl) {
+        initialize(user, pass, jdbcUrl, new DbOptions());
+    }
+
+    public static void initialize(String user, String pass, String jdbcUrl, DbOptions options) {
         try {
             HikariConfig config = new HikariConfig();
 
@@ -79,6 +94,7 @@ public final class DB {
             config.addDataSourceProperty("useLocalSessionState", true);
             config.addDataSourceProperty("elideSetAutoCommits", true);
             config.addDataSourceProperty("alwaysSendSetIsolation", false);
+            config.addDataSourceProperty("rewriteBatchedStatements", true);
 
             config.setConnectionTestQuery("SELECT 1");
             config.setInitializationFailFast(true);
@@ -88,11 +104,7 @@ public final class DB {
             pooledDataSource = new HikariDataSource(config);
             pooledDataSource.setTransactionIsolation("TRANSACTION_READ_COMMITTED");
 
-            executor = (ThreadPoolExecutor) Executors.newCachedThreadPool(r -> {
-                final Thread thread = new Thread(r);
-                thread.setName("DbAsyncQueue Thread Pool");
-                return thread;
-            });
+            executor = DbExecutors.create(options);
 
             scheduledExecutor = Executors.newScheduledThreadPool(5, r -> {
                 final Thread thread = new Thread(r);
@@ -100,7 +112,14 @@ public final class DB {
                 return thread;
             });
 
-            scheduledExecutor.scheduleAtFixedRate(new AsyncDbQueue(), 0, 50, TimeUnit.MILLISECONDS);
+            shutdownTimeoutMillis = options.getAsyncShutdownTimeoutMillis();
+            streamFetchSize = options.getStreamFetchSize();
+            DbResultBudget.start(options);
+            DbStatementCache.start(options);
+            DbInList.start(options);
+            AsyncDbCoalescer.start(options);
+            AsyncDbCounters.start(options);
+            AsyncDbQueue.start(options);
         } catch (Exception ex) {
             pooledDataSource = null;
             ex.printStackTrace();
@@ -130,13 +149,17 @@ public final class DB {
      */
     public static CompletableFuture<DbStatement> queryAsync(@Language("MySQL") String query) throws SQLException {
         CompletableFuture<DbStatement> future = new CompletableFuture<>();
-        executor.submit(() -> {
-            try {
-                future.complete(new DbStatement().query(query));
-            } catch (SQLException e) {
-                future.completeExceptionally(e);
-            }
-        });
+        try {
+            execute(() -> {
+                try {
+                    future.complete(new DbStatement().query(query));
+                } catch (SQLException e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
         return future;
     }
 
@@ -150,10 +173,25 @@ public final class DB {
      * @throws SQLException
      */
     public static DbRow getFirstRow(@Language("MySQL") String query, Object... params) throws SQLException {
-        try (DbStatement statement = DB.query(query).execute(params)) {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
             return statement.getNextRow();
         }
     }
+    /**
+     * Utility method to execute a query and map the first row to the given type, then close statement.
+     *
+     * @param type   The class to map the row to, see {@link RowMapper#of(Class)}
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return The mapped row, or null if there was none
+     * @throws SQLException
+     */
+    public static <T> T getFirstRow(Class<T> type, @Language("MySQL") String query, Object... params) throws SQLException {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
+            return statement.getNextRow(type);
+        }
+    }
+
     /**
      * Utility method to execute a query and retrieve the first row, then close statement.
      * You should ensure result will only return 1 row for maximum performance.
@@ -166,6 +204,11 @@ public final class DB {
     public static CompletableFuture<DbRow> getFirstRowAsync(@Language("MySQL") String query, Object... params) throws SQLException {
         CompletableFuture<DbRow> future = new CompletableFuture<>();
         new AsyncDbStatement(query) {
+            @Override
+            public void onError(SQLException e) {
+                future.completeExceptionally(e);
+            }
+
             @Override
             protected void run(DbStatement statement) throws SQLException {
                 try {
@@ -189,7 +232,7 @@ public final class DB {
      * @throws SQLException
      */
     public static <T> T getFirstColumn(@Language("MySQL") String query, Object... params) throws SQLException {
-        try (DbStatement statement = DB.query(query).execute(params)) {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
             return statement.getFirstColumn();
         }
     }
@@ -205,6 +248,11 @@ public final class DB {
     public static <T> CompletableFuture<T> getFirstColumnAsync(@Language("MySQL") String query, Object... params) throws SQLException {
         CompletableFuture<T> future = new CompletableFuture<>();
         new AsyncDbStatement(query) {
+            @Override
+            public void onError(SQLException e) {
+                future.completeExceptionally(e);
+            }
+
             @Override
             protected void run(DbStatement statement) throws SQLException {
                 try {
@@ -231,7 +279,7 @@ public final class DB {
     public static <T> List<T> getFirstColumnResults(@Language("MySQL") String query, Object... params) throws SQLException {
         List<T> dbRows = new ArrayList<>();
         T result;
-        try (DbStatement statement = DB.query(query).execute(params)) {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
             while ((result = statement.getFirstColumn()) != null) {
                 dbRows.add(result);
             }
@@ -251,6 +299,11 @@ public final class DB {
     public static <T> CompletableFuture<List<T>> getFirstColumnResultsAsync(@Language("MySQL") String query, Object... params) throws SQLException {
         CompletableFuture<List<T>> future = new CompletableFuture<>();
         new AsyncDbStatement(query) {
+            @Override
+            public void onError(SQLException e) {
+                future.completeExceptionally(e);
+            }
+
             @Override
             protected void run(DbStatement statement) throws SQLException {
                 try {
@@ -280,11 +333,122 @@ public final class DB {
      * @throws SQLException
      */
     public static List<DbRow> getResults(@Language("MySQL") String query, Object... params) throws SQLException {
-        try (DbStatement statement = DB.query(query).execute(params)) {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
             return statement.getResults();
         }
     }
 
+    /**
+     * Utility method to execute a query and map all results to the given type, then close statement.
+     *
+     * Meant for single queries that will not use the statement multiple times.
+     *
+     * @param type   The class to map rows to, see {@link RowMapper#of(Class)}
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return List of mapped rows
+     * @throws SQLException
+     */
+    public static <T> List<T> getResults(Class<T> type, @Language("MySQL") String query, Object... params) throws SQLException {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
+            return statement.getResults(type);
+        }
+    }
+
+    /**
+     * Utility method to execute a query and retrieve all results stored column by column, then close statement.
+     * Numeric and boolean columns are held in primitive arrays, for aggregate and report queries.
+     *
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return The columnar result
+     * @throws SQLException
+     */
+    public static DbColumnarResult getColumnarResults(@Language("MySQL") String query, Object... params) throws SQLException {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
+            return statement.getColumnarResults();
+        }
+    }
+
+    /**
+     * Utility method to execute a query and retrieve all results encoded into direct memory outside
+     * of the heap, then close statement. Suits results too large to hold as DbRows.
+     * YOU MUST CLOSE THE RESULT when done with it to free that memory.
+     *
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return The off heap result
+     * @throws SQLException
+     */
+    public static DbOffHeapResult getOffHeapResults(@Language("MySQL") String query, Object... params) throws SQLException {
+        try (DbStatement statement = new DbStatement().queryRead(query).execute(params)) {
+            return statement.getOffHeapResults();
+        }
+    }
+
+    /**
+     * Utility method to execute a query and stream its results from the server as they are read, instead
+     * of holding them all in memory. The statement is forward-only and read-only, and uses the fetch size
+     * from {@link DbOptions#setStreamFetchSize(int)}.
+     * <p/>
+     * The statement and its connection are released once the stream is exhausted or closed.
+     * YOU MUST CLOSE THE STREAM IF YOU DO NOT READ IT TO THE END, such as with try-with-resources.
+     *
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return Stream of DbRow, throwing {@link UncheckedSQLException} if reading fails
+     * @throws SQLException
+     */
+    public static Stream<DbRow> stream(@Language("MySQL") String query, Object... params) throws SQLException {
+        return openCursor(query, params).stream(true);
+    }
+
+    /**
+     * Utility method to execute a query and stream its results mapped to the given type.
+     *
+     * @param type   The class to map rows to, see {@link RowMapper#of(Class)}
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return Stream of mapped rows, throwing {@link UncheckedSQLException} if reading fails
+     * @throws SQLException
+     * @see #stream(String, Object...)
+     */
+    public static <T> Stream<T> stream(Class<T> type, @Language("MySQL") String query, Object... params) throws SQLException {
+        return openCursor(query, params).stream(type, true);
+    }
+
+    /**
+     * Publishes the results of a query, streamed as with {@link #stream(String, Object...)}, reading them
+     * on the async executor only as fast as subscribers request them.
+     * <p/>
+     * Each subscriber runs the query on its own statement, opened on its first request and released on
+     * completion, error or cancel.
+     *
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return Publisher of DbRow
+     */
+    public static DbFlow.Publisher<DbRow> publish(@Language("MySQL") String query, Object... params) {
+        return new RowPublisher<>(() -> openCursor(query, params), DbStatement::rowMapper, true);
+    }
+
+    /**
+     * Publishes the results of a query mapped to the given type.
+     *
+     * @param type   The class to map rows to, see {@link RowMapper#of(Class)}
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with
+     * @return Publisher of mapped rows
+     * @see #publish(String, Object...)
+     */
+    public static <T> DbFlow.Publisher<T> publish(Class<T> type, @Language("MySQL") String query, Object... params) {
+        return new RowPublisher<>(() -> openCursor(query, params), statement -> statement.rowMapper(type), true);
+    }
+
+    private static DbStatement openCursor(String query, Object... params) throws SQLException {
+        return new DbStatement().queryCursor(query, streamFetchSize).execute(params);
+    }
+
     /**
      * Utility method to execute a query and retrieve all results, then close statement.
      *
@@ -298,6 +462,11 @@ public final class DB {
     public static CompletableFuture<List<DbRow>> getResultsAsync(@Language("MySQL") String query, Object... params) throws SQLException {
         CompletableFuture<List<DbRow>> future = new CompletableFuture<>();
         new AsyncDbStatement(query) {
+            @Override
+            public void onError(SQLException e) {
+                future.completeExceptionally(e);
+            }
+
             @Override
             protected void run(DbStatement statement) throws SQLException {
                 try {
@@ -321,7 +490,7 @@ public final class DB {
      * @throws SQLException
      */
     public static Long executeInsert(@Language("MySQL") String query, Object... params) throws SQLException {
-        try (DbStatement statement = DB.query(query)) {
+        try (DbStatement statement = new DbStatement().queryInsert(query)) {
             int i = statement.executeUpdate(params);
             if (i > 0) {
                 return statement.getLastInsertId();
@@ -329,6 +498,105 @@ public final class DB {
         }
         return null;
     }
+    /**
+     * Utility method to look up rows by a list of values, such as ids, then close statement. The one
+     * Collection among the parameters is expanded where its ? is, so {@code WHERE id IN (?)} becomes
+     * {@code WHERE id IN (?, ?, ?, ?)}.
+     * <p/>
+     * Placeholders are rounded up to a power of two, padded by repeating the last value, so the statement
+     * is prepared once per size bucket rather than once per list length. Lists longer than
+     * {@link DbOptions#setInListMaxSize(int)} run in chunks on one connection, with results merged in order.
+     *
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with, exactly one of them a Collection
+     * @return List of DbRow of your results, empty without querying if the collection is empty
+     * @throws SQLException
+     */
+    public static List<DbRow> getResultsIn(@Language("MySQL") String query, Object... params) throws SQLException {
+        List<DbRow> results = new ArrayList<>();
+        try (DbStatement statement = new DbStatement()) {
+            DbInList.forEachChunk(query, params, (sql, args) -> results.addAll(statement.queryRead(sql).execute(args).getResults()));
+        }
+        return results;
+    }
+
+    /**
+     * Utility method to look up rows by a list of values and map them to the given type, then close statement.
+     *
+     * @param type   The class to map rows to, see {@link RowMapper#of(Class)}
+     * @param query  The query to run
+     * @param params The parameters to execute the statement with, exactly one of them a Collection
+     * @return List of mapped rows
+     * @throws SQLException
+     * @see #getResultsIn(String, Object...)
+     */
+    public static <T> List<T> getResultsIn(Class<T> type, @Language("MySQL") String query, Object... params) throws SQLException {
+        List<T> results = new ArrayList<>();
+        try (DbStatement statement = new DbStatement()) {
+            DbInList.forEachChunk(query, params, (sql, args) -> results.addAll(statement.queryRead(sql).execute(args).getResults(type)));
+        }
+        return results;
+    }
+
+    /**
+     * Utility method for executing an update against a list of values, such as deleting by ids, and then close
+     * the statement. Expanded and chunked like {@link #getResultsIn(String, Object...)}.
+     *
+     * @param query  Query to run
+     * @param params Params to execute the statement with, exactly one of them a Collection
+     * @return Number of rows modified across all chunks.
+     * @throws SQLException
+     */
+    public static int executeUpdateIn(@Language("MySQL") String query, Object... params) throws SQLException {
+        int[] updated = {0};
+        try (DbStatement statement = new DbStatement()) {
+            DbInList.forEachChunk(query, params, (sql, args) -> updated[0] += statement.queryWrite(sql).executeUpdate(args));
+        }
+        return updated[0];
+    }
+
+    /**
+     * Utility method to execute a query with named parameters and retrieve the first row, then close statement.
+     *
+     * @param template Query with named parameters, see {@link DbStatement#queryNamed(String)}
+     * @param params   Map of names to values, or a bean or record whose properties hold them
+     * @return DbRow of your results, or null if there was none
+     * @throws SQLException
+     */
+    public static DbRow getFirstRowNamed(@Language("MySQL") String template, Object params) throws SQLException {
+        try (DbStatement statement = new DbStatement().queryNamed(template).bindNamed(params).execute()) {
+            return statement.getNextRow();
+        }
+    }
+
+    /**
+     * Utility method to execute a query with named parameters and retrieve all results, then close statement.
+     *
+     * @param template Query with named parameters, see {@link DbStatement#queryNamed(String)}
+     * @param params   Map of names to values, or a bean or record whose properties hold them
+     * @return List of DbRow of your results
+     * @throws SQLException
+     */
+    public static List<DbRow> getResultsNamed(@Language("MySQL") String template, Object params) throws SQLException {
+        try (DbStatement statement = new DbStatement().queryNamed(template).bindNamed(params).execute()) {
+            return statement.getResults();
+        }
+    }
+
+    /**
+     * Utility method for executing an update with named parameters synchronously, and then close the statement.
+     *
+     * @param template Query with named parameters, see {@link DbStatement#queryNamed(String)}
+     * @param params   Map of names to values, or a bean or record whose properties hold them
+     * @return Number of rows modified.
+     * @throws SQLException
+     */
+    public static int executeUpdateNamed(@Language("MySQL") String template, Object params) throws SQLException {
+        try (DbStatement statement = new DbStatement().queryNamed(template).bindNamed(params)) {
+            return statement.executeUpdate();
+        }
+    }
+
     /**
      * Utility method for executing an update synchronously, and then close the statement.
      *
@@ -338,7 +606,7 @@ public final class DB {
      * @throws SQLException
      */
     public static int executeUpdate(@Language("MySQL") String query, Object... params) throws SQLException {
-        try (DbStatement statement = DB.query(query)) {
+        try (DbStatement statement = new DbStatement().queryWrite(query)) {
             return statement.executeUpdate(params);
         }
     }
@@ -348,34 +616,211 @@ public final class DB {
      *
      * @param query  Query to run
      * @param params Params to execute the update with
+     * @see #submitUpdateAsync(String, Object...)
      */
     public static void executeUpdateAsync(@Language("MySQL") String query, final Object... params) {
-        new AsyncDbStatement(query) {
-            @Override
-            public void run(DbStatement statement) throws SQLException {
-                statement.executeUpdate(params);
+        submitUpdateAsync(query, params);
+    }
+
+    /**
+     * Utility method to execute an update statement asynchronously and close the connection,
+     * like {@link #executeUpdateAsync(String, Object...)} but returning its outcome.
+     *
+     * @param query  Query to run
+     * @param params Params to execute the update with
+     * @return Future completed with the number of rows modified
+     */
+    public static CompletableFuture<Integer> submitUpdateAsync(@Language("MySQL") String query, final Object... params) {
+        return new AsyncDbUpdate(query, null, AsyncDbStatement.Priority.NORMAL, params).submit();
+    }
+
+    /**
+     * Utility method to execute an update statement asynchronously and close the connection.
+     *
+     * @param priority Class the update is served in by the async queue
+     * @param query    Query to run
+     * @param params   Params to execute the update with
+     * @return Future completed with the number of rows modified
+     */
+    public static CompletableFuture<Integer> executeUpdateAsync(AsyncDbStatement.Priority priority, @Language("MySQL") String query, final Object... params) {
+        return new AsyncDbUpdate(query, null, priority, params).submit();
+    }
+
+    /**
+     * Utility method to execute an update statement asynchronously and close the connection.
+     * Updates sharing an ordering key run in the order they were queued.
+     *
+     * @param orderingKey Key to order this update by, such as a player UUID or an entity id
+     * @param query       Query to run
+     * @param params      Params to execute the update with
+     * @return Future completed with the number of rows modified
+     */
+    public static CompletableFuture<Integer> executeOrderedUpdateAsync(Object orderingKey, @Language("MySQL") String query, final Object... params) {
+        return new AsyncDbUpdate(query, orderingKey, AsyncDbStatement.Priority.NORMAL, params).submit();
+    }
+
+    /**
+     * Utility method to execute an update statement asynchronously and close the connection.
+     * Updates sharing an ordering key and priority run in the order they were queued.
+     *
+     * @param orderingKey Key to order this update by, such as a player UUID or an entity id
+     * @param priority    Class the update is served in by the async queue
+     * @param query       Query to run
+     * @param params      Params to execute the update with
+     * @return Future completed with the number of rows modified
+     */
+    public static CompletableFuture<Integer> executeOrderedUpdateAsync(Object orderingKey, AsyncDbStatement.Priority priority, @Language("MySQL") String query, final Object... params) {
+        return new AsyncDbUpdate(query, orderingKey, priority, params).submit();
+    }
+
+    /**
+     * Number of async statements currently waiting in memory to be processed.
+     *
+     * @return
+     */
+    public static int getAsyncQueueSize() {
+        return AsyncDbQueue.size();
+    }
+
+    /**
+     * Number of async updates currently spooled to disk, see {@link DbOptions.OverflowPolicy#SPILL}.
+     *
+     * @return
+     */
+    public static int getAsyncQueueSpooled() {
+        return AsyncDbQueue.spooled();
+    }
+
+    /**
+     * Number of statements reused from the per connection statement cache instead of being prepared,
+     * see {@link DbOptions#setStatementCacheSize(int)}.
+     *
+     * @return
+     */
+    public static long getStatementCacheHits() {
+        return DbStatementCache.getHits();
+    }
+
+    /**
+     * Number of statements prepared because the connection had none cached for their SQL.
+     *
+     * @return
+     */
+    public static long getStatementCacheMisses() {
+        return DbStatementCache.getMisses();
+    }
+
+    /**
+     * Utility method to execute an update statement asynchronously after a short delay, for updates where only
+     * the latest value matters, such as periodic entity saves.
+     * <p/>
+     * If another update with the same coalescing key is queued before this one is sent, it replaces this one,
+     * and both futures complete with the result of the update that actually ran.
+     * Updates sharing a coalescing key also run in the order they were sent.
+     *
+     * @param coalescingKey Key identifying the row being written, such as an entity id
+     * @param query         Query to run
+     * @param params        Params to execute the update with
+     * @return Future completed with the number of rows modified
+     * @see DbOptions#setAsyncCoalesceDelayMillis(long)
+     */
+    public static CompletableFuture<Integer> executeCoalescedUpdateAsync(Object coalescingKey, @Language("MySQL") String query, final Object... params) {
+        return AsyncDbCoalescer.submit(coalescingKey, AsyncDbStatement.Priority.NORMAL, query, params);
+    }
+
+    /**
+     * @see #executeCoalescedUpdateAsync(Object, String, Object...)
+     */
+    public static CompletableFuture<Integer> executeCoalescedUpdateAsync(Object coalescingKey, AsyncDbStatement.Priority priority, @Language("MySQL") String query, final Object... params) {
+        return AsyncDbCoalescer.submit(coalescingKey, priority, query, params);
+    }
+
+    /**
+     * Adds to a counter column without a round trip per call. Increments are accumulated in memory and
+     * flushed as a single {@code UPDATE table SET column = column + ? WHERE idColumn = ?} per counter
+     * every {@link DbOptions#setAsyncCounterFlushMillis(long)}.
+     * <p/>
+     * Table and column names are inserted into the SQL as is, so they must never come from user input.
+     *
+     * @param table    Table holding the counter
+     * @param column   Counter column
+     * @param idColumn Column identifying the row
+     * @param id       Id of the row
+     * @param delta    Amount to add, may be negative
+     */
+    public static void incrementAsync(String table, String column, String idColumn, Object id, long delta) {
+        AsyncDbCounters.add(table, column, idColumn, id, delta);
+    }
+
+    /**
+     * Number of {@link #queryAsync(String)} and {@link #createTransactionAsync(TransactionCallback)} tasks currently running.
+     *
+     * @return
+     */
+    public static int getExecutorActiveCount() {
+        return executorActive.get();
+    }
+
+    /**
+     * Number of {@link #queryAsync(String)} and {@link #createTransactionAsync(TransactionCallback)} tasks waiting
+     * for a thread. Always 0 unless the executor is a {@link ThreadPoolExecutor}, such as {@link DbOptions.ExecutorMode#BOUNDED}.
+     *
+     * @return
+     */
+    public static int getExecutorQueueSize() {
+        return executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    /**
+     * @param task
+     * @throws RejectedExecutionException if the executor is full, rather than running the task on the caller
+     */
+    static void execute(Runnable task) {
+        executor.execute(() -> {
+            executorActive.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                executorActive.decrementAndGet();
             }
-        };
+        });
+    }
+
+    static ScheduledExecutorService getScheduledExecutor() {
+        return scheduledExecutor;
     }
 
     static Connection getConnection() throws SQLException {
         return pooledDataSource != null ? pooledDataSource.getConnection() : null;
     }
 
+    static void evictConnection(Connection connection) {
+        if (pooledDataSource != null) {
+            pooledDataSource.evictConnection(connection);
+        }
+    }
+
     public static void createTransactionAsync(TransactionCallback run) {
         createTransactionAsync(run, null, null);
     }
 
     public static void createTransactionAsync(TransactionCallback run, Runnable onSuccess, Runnable onFail) {
-        executor.submit(() -> {
-            if (!createTransaction(run)) {
-                if (onFail != null) {
-                    onFail.run();
+        try {
+            execute(() -> {
+                if (!createTransaction(run)) {
+                    if (onFail != null) {
+                        onFail.run();
+                    }
+                } else if (onSuccess != null) {
+                    onSuccess.run();
                 }
-            } else if (onSuccess != null) {
-                onSuccess.run();
+            });
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+            if (onFail != null) {
+                onFail.run();
             }
-        });
+        }
     }
 
     public static boolean createTransaction(TransactionCallback run) {
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The setter for each parameter of a query, derived from the classes of the first parameters it ran with,
+ * so later executions bind with typed setters instead of making the driver dispatch on setObject.
+ * <p/>
+ * Plans are cached per SQL, and replaced when a query runs with parameters of other classes.
+ * Nulls match any plan and are bound with setObject, as before.
+ */
+final class DbBindPlan {
+    private static final int MAX_CACHED = 1024;
+    private static final Map<String, DbBindPlan> plans = new ConcurrentHashMap<>();
+
+    private final Class<?>[] types;
+    private final Setter[] setters;
+
+    private DbBindPlan(Object[] params) {
+        this.types = new Class<?>[params.length];
+        this.setters = new Setter[params.length];
+        for (int i = 0; i < params.length; i++) {
+            types[i] = params[i] != null ? params[i].getClass() : null;
+            setters[i] = Setter.of(types[i]);
+        }
+    }
+
+    /**
+     * Gets the plan for the query that binds these parameters, reusing the given plan if it does.
+     *
+     * @param query
+     * @param plan   Plan last used for the query, or null
+     * @param params
+     * @return
+     */
+    static DbBindPlan of(String query, DbBindPlan plan, Object[] params) {
+        if (plan != null && plan.matches(params)) {
+            return plan;
+        }
+        plan = plans.get(query);
+        if (plan != null && plan.matches(params)) {
+            return plan;
+        }
+        plan = new DbBindPlan(params);
+        if (plans.size() < MAX_CACHED || plans.containsKey(query)) {
+            plans.put(query, plan);
+        }
+        return plan;
+    }
+
+    private boolean matches(Object[] params) {
+        if (params.length != types.length) {
+            return false;
+        }
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] != null && params[i].getClass() != types[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            Object value = params[i];
+            if (value == null) {
+                statement.setObject(i + 1, null);
+            } else {
+                setters[i].set(statement, i + 1, value);
+            }
+        }
+    }
+
+    private enum Setter {
+        LONG {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setLong(index, (Long) value);
+            }
+        },
+        INT {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setInt(index, (Integer) value);
+            }
+        },
+        SHORT {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setShort(index, (Short) value);
+            }
+        },
+        BYTE {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setByte(index, (Byte) value);
+            }
+        },
+        DOUBLE {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setDouble(index, (Double) value);
+            }
+        },
+        FLOAT {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setFloat(index, (Float) value);
+            }
+        },
+        BOOLEAN {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setBoolean(index, (Boolean) value);
+            }
+        },
+        STRING {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setString(index, (String) value);
+            }
+        },
+        BYTES {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setBytes(index, (byte[]) value);
+            }
+        },
+        BIG_DECIMAL {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setBigDecimal(index, (BigDecimal) value);
+            }
+        },
+        TIMESTAMP {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setTimestamp(index, (Timestamp) value);
+            }
+        },
+        DATE {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setDate(index, (java.sql.Date) value);
+            }
+        },
+        TIME {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setTime(index, (Time) value);
+            }
+        },
+        OBJECT {
+            @Override
+            void set(PreparedStatement statement, int index, Object value) throws SQLException {
+                statement.setObject(index, value);
+            }
+        };
+
+        abstract void set(PreparedStatement statement, int index, Object value) throws SQLException;
+
+        static Setter of(Class<?> type) {
+            if (type == Long.class) {
+                return LONG;
+            } else if (type == Integer.class) {
+                return INT;
+            } else if (type == Short.class) {
+                return SHORT;
+            } else if (type == Byte.class) {
+                return BYTE;
+            } else if (type == Double.class) {
+                return DOUBLE;
+            } else if (type == Float.class) {
+                return FLOAT;
+            } else if (type == Boolean.class) {
+                return BOOLEAN;
+            } else if (type == String.class) {
+                return STRING;
+            } else if (type == byte[].class) {
+                return BYTES;
+            } else if (type == BigDecimal.class) {
+                return BIG_DECIMAL;
+            } else if (type == Timestamp.class) {
+                return TIMESTAMP;
+            } else if (type == java.sql.Date.class) {
+                return DATE;
+            } else if (type == Time.class) {
+                return TIME;
+            }
+            return OBJECT;
+        }
+    }
+}
@@ -0,0 +1,607 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * A materialized result stored column by column, with numeric and boolean columns held in primitive
+ * arrays plus a bitmap of null rows, for computing over many rows of a few columns.
+ * <p/>
+ * Rows are 0-based, like a List. Columns are 1-based, like JDBC, or looked up by label.
+ * <p/>
+ * The array getters return the column's own storage, sized to exactly {@link #size()} rows, so loops over
+ * them stay simple enough for the JIT to vectorize. Do not modify them. Null rows hold 0 in those arrays;
+ * check {@link #getNullBitmap(int)} where that matters.
+ */
+public final class DbColumnarResult {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final DbRowSchema schema;
+    private final Column[] columns;
+    private int size = 0;
+    private int capacity = INITIAL_CAPACITY;
+
+    DbColumnarResult(DbRowSchema schema) {
+        this.schema = schema;
+        this.columns = new Column[schema.size()];
+        for (int i = 0; i < columns.length; i++) {
+            switch (schema.getKind(i)) {
+                case LONG:
+                    columns[i] = new LongColumn();
+                    break;
+                case INT:
+                case SHORT:
+                case BYTE:
+                    columns[i] = new IntColumn(schema.getKind(i));
+                    break;
+                case DOUBLE:
+                case FLOAT:
+                    columns[i] = new DoubleColumn(schema.getKind(i));
+                    break;
+                case BOOLEAN:
+                    columns[i] = new BooleanColumn();
+                    break;
+                default:
+                    columns[i] = new ObjectColumn();
+            }
+            columns[i].grow(capacity);
+        }
+    }
+
+    /**
+     * Appends the current row of the result set.
+     */
+    void add(ResultSet resultSet) throws SQLException {
+        if (size == capacity) {
+            capacity *= 2;
+            for (Column column : columns) {
+                column.grow(capacity);
+            }
+        }
+        for (int i = 0; i < columns.length; i++) {
+            Column column = columns[i];
+            column.read(resultSet, i + 1, size);
+            if (resultSet.wasNull()) {
+                column.setNull(size);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Shrinks the columns to the number of rows read.
+     */
+    void trim() {
+        for (Column column : columns) {
+            column.trim(size);
+        }
+    }
+
+    /**
+     * @return Number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return The column's label
+     */
+    public String getColumnName(int column) {
+        return schema.getColumn(position(column));
+    }
+
+    /**
+     * @param column
+     * @return The 1-based index of the column
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public int findColumn(String column) {
+        int index = schema.indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return index + 1;
+    }
+
+    public boolean isNull(int row, int column) {
+        checkRow(row);
+        return columns[position(column)].isNull(row);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return Bitmap with bit (row % 64) of word (row / 64) set for null rows, or null if the column has no nulls
+     */
+    public long[] getNullBitmap(int column) {
+        return columns[position(column)].nulls;
+    }
+
+    public long getLong(int row, int column) {
+        checkRow(row);
+        return columns[position(column)].getLong(row);
+    }
+
+    public long getLong(int row, String column) {
+        return getLong(row, findColumn(column));
+    }
+
+    public int getInt(int row, int column) {
+        return (int) getLong(row, column);
+    }
+
+    public int getInt(int row, String column) {
+        return getInt(row, findColumn(column));
+    }
+
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        return columns[position(column)].getDouble(row);
+    }
+
+    public double getDouble(int row, String column) {
+        return getDouble(row, findColumn(column));
+    }
+
+    public boolean getBoolean(int row, int column) {
+        return getDouble(row, column) != 0;
+    }
+
+    public boolean getBoolean(int row, String column) {
+        return getBoolean(row, findColumn(column));
+    }
+
+    /**
+     * @return The value boxed to the class the driver reports for the column, or null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(int row, int column) {
+        checkRow(row);
+        Column data = columns[position(column)];
+        return data.isNull(row) ? null : (T) data.get(row);
+    }
+
+    public <T> T getObject(int row, String column) {
+        return getObject(row, findColumn(column));
+    }
+
+    /**
+     * @param column 1-based index of a BIGINT column, or of an integer or boolean column which is widened into a copy
+     * @return The column's values
+     */
+    public long[] getLongs(int column) {
+        Column data = columns[position(column)];
+        if (data instanceof LongColumn) {
+            return ((LongColumn) data).values;
+        }
+        long[] values = new long[size];
+        for (int row = 0; row < size; row++) {
+            values[row] = data.getLong(row);
+        }
+        return values;
+    }
+
+    public long[] getLongs(String column) {
+        return getLongs(findColumn(column));
+    }
+
+    /**
+     * @param column 1-based index of an INT, SMALLINT or TINYINT column
+     * @return The column's values
+     */
+    public int[] getInts(int column) {
+        Column data = columns[position(column)];
+        if (!(data instanceof IntColumn)) {
+            throw new IllegalArgumentException("Column " + getColumnName(column) + " is not stored as int");
+        }
+        return ((IntColumn) data).values;
+    }
+
+    public int[] getInts(String column) {
+        return getInts(findColumn(column));
+    }
+
+    /**
+     * @param column 1-based index of a floating point column, or of a numeric column which is converted into a copy
+     * @return The column's values
+     */
+    public double[] getDoubles(int column) {
+        Column data = columns[position(column)];
+        if (data instanceof DoubleColumn) {
+            return ((DoubleColumn) data).values;
+        }
+        double[] values = new double[size];
+        for (int row = 0; row < size; row++) {
+            values[row] = data.getDouble(row);
+        }
+        return values;
+    }
+
+    public double[] getDoubles(String column) {
+        return getDoubles(findColumn(column));
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return Sum of the column's non null values
+     */
+    public long sumLong(int column) {
+        Column data = columns[position(column)];
+        long sum = 0;
+        if (data instanceof LongColumn) {
+            // Null rows hold 0
+            for (long value : ((LongColumn) data).values) {
+                sum += value;
+            }
+        } else if (data instanceof IntColumn) {
+            for (int value : ((IntColumn) data).values) {
+                sum += value;
+            }
+        } else {
+            for (int row = 0; row < size; row++) {
+                sum += data.getLong(row);
+            }
+        }
+        return sum;
+    }
+
+    public long sumLong(String column) {
+        return sumLong(findColumn(column));
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return Sum of the column's non null values
+     */
+    public double sumDouble(int column) {
+        Column data = columns[position(column)];
+        double sum = 0;
+        if (data instanceof DoubleColumn) {
+            for (double value : ((DoubleColumn) data).values) {
+                sum += value;
+            }
+        } else {
+            for (int row = 0; row < size; row++) {
+                sum += data.getDouble(row);
+            }
+        }
+        return sum;
+    }
+
+    public double sumDouble(String column) {
+        return sumDouble(findColumn(column));
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return Number of non null values in the column
+     */
+    public int count(int column) {
+        long[] nulls = columns[position(column)].nulls;
+        if (nulls == null) {
+            return size;
+        }
+        int count = size;
+        for (long word : nulls) {
+            count -= Long.bitCount(word);
+        }
+        return count;
+    }
+
+    public int count(String column) {
+        return count(findColumn(column));
+    }
+
+    private int position(int column) {
+        if (column < 1 || column > columns.length) {
+            throw new IndexOutOfBoundsException("Column " + column + " of " + columns.length);
+        }
+        return column - 1;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+
+    /**
+     * Storage of one column. Reads leave the slot of a null value at 0; the caller then marks it null.
+     */
+    private abstract static class Column {
+        private long[] nulls;
+
+        abstract int capacity();
+
+        abstract void grow(int capacity);
+
+        abstract void trim(int size);
+
+        abstract void read(ResultSet resultSet, int column, int row) throws SQLException;
+
+        abstract Object get(int row);
+
+        abstract long getLong(int row);
+
+        abstract double getDouble(int row);
+
+        void setNull(int row) {
+            int word = row >>> 6;
+            if (nulls == null) {
+                nulls = new long[Math.max(word + 1, capacity() >>> 6)];
+            } else if (word >= nulls.length) {
+                nulls = Arrays.copyOf(nulls, Math.max(word + 1, nulls.length * 2));
+            }
+            nulls[word] |= 1L << row;
+        }
+
+        boolean isNull(int row) {
+            int word = row >>> 6;
+            return nulls != null && word < nulls.length && (nulls[word] & (1L << row)) != 0;
+        }
+
+        void trimNulls(int size) {
+            if (nulls != null) {
+                nulls = Arrays.copyOf(nulls, (size + 63) >>> 6);
+            }
+        }
+    }
+
+    private static final class LongColumn extends Column {
+        private long[] values = new long[0];
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+            trimNulls(size);
+        }
+
+        @Override
+        void read(ResultSet resultSet, int column, int row) throws SQLException {
+            values[row] = resultSet.getLong(column);
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+    }
+
+    private static final class IntColumn extends Column {
+        private final DbRowSchema.Kind kind;
+        private int[] values = new int[0];
+
+        private IntColumn(DbRowSchema.Kind kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+            trimNulls(size);
+        }
+
+        @Override
+        void read(ResultSet resultSet, int column, int row) throws SQLException {
+            values[row] = resultSet.getInt(column);
+        }
+
+        @Override
+        Object get(int row) {
+            switch (kind) {
+                case SHORT:
+                    return (short) values[row];
+                case BYTE:
+                    return (byte) values[row];
+                default:
+                    return values[row];
+            }
+        }
+
+        @Override
+        long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+    }
+
+    private static final class DoubleColumn extends Column {
+        private final DbRowSchema.Kind kind;
+        private double[] values = new double[0];
+
+        private DoubleColumn(DbRowSchema.Kind kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+            trimNulls(size);
+        }
+
+        @Override
+        void read(ResultSet resultSet, int column, int row) throws SQLException {
+            values[row] = kind == DbRowSchema.Kind.FLOAT ? resultSet.getFloat(column) : resultSet.getDouble(column);
+        }
+
+        @Override
+        Object get(int row) {
+            return kind == DbRowSchema.Kind.FLOAT ? (Object) (float) values[row] : (Object) values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            return (long) values[row];
+        }
+
+        @Override
+        double getDouble(int row) {
+            return values[row];
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+        private long[] bits = new long[0];
+        private int capacity = 0;
+
+        @Override
+        int capacity() {
+            return capacity;
+        }
+
+        @Override
+        void grow(int capacity) {
+            this.capacity = capacity;
+            bits = Arrays.copyOf(bits, (capacity + 63) >>> 6);
+        }
+
+        @Override
+        void trim(int size) {
+            grow(size);
+            trimNulls(size);
+        }
+
+        @Override
+        void read(ResultSet resultSet, int column, int row) throws SQLException {
+            if (resultSet.getBoolean(column)) {
+                bits[row >>> 6] |= 1L << row;
+            }
+        }
+
+        @Override
+        Object get(int row) {
+            return (bits[row >>> 6] & (1L << row)) != 0;
+        }
+
+        @Override
+        long getLong(int row) {
+            return (bits[row >>> 6] & (1L << row)) != 0 ? 1 : 0;
+        }
+
+        @Override
+        double getDouble(int row) {
+            return getLong(row);
+        }
+    }
+
+    private static final class ObjectColumn extends Column {
+        private Object[] values = new Object[0];
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void trim(int size) {
+            values = Arrays.copyOf(values, size);
+            trimNulls(size);
+        }
+
+        @Override
+        void read(ResultSet resultSet, int column, int row) throws SQLException {
+            values[row] = resultSet.getObject(column);
+        }
+
+        @Override
+        Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        long getLong(int row) {
+            Object value = values[row];
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1 : 0;
+            }
+            return value != null ? ((Number) value).longValue() : 0;
+        }
+
+        @Override
+        double getDouble(int row) {
+            Object value = values[row];
+            if (value instanceof Boolean) {
+                return (Boolean) value ? 1 : 0;
+            }
+            return value != null ? ((Number) value).doubleValue() : 0;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.lang.ref.WeakReference;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base class of the mappers generated for {@link DbEntity} classes by the db-processor module.
+ * <p/>
+ * A generated mapper reads and binds the entity's columns with plain field and method access.
+ * Which result column feeds which property is resolved once per result layout, matching labels the
+ * same way {@link RowMapper#of(Class)} does, so mapping a row does no lookups by label.
+ * <p/>
+ * As a {@link ParamBinder} it binds the entity's columns in {@link #getColumns()} order, for use
+ * with statements such as "INSERT INTO t (" + String.join(", ", mapper.getColumns()) + ") VALUES (?, ...)".
+ *
+ * @param <T>
+ */
+public abstract class DbEntityMapper<T> implements RowMapper<T>, ParamBinder<T> {
+    private final String[] columns;
+    private volatile Bound last;
+
+    protected DbEntityMapper(String... columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @return The entity's column labels, in declaration order
+     */
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    /**
+     * Maps the current row.
+     *
+     * @param resultSet
+     * @param indexes   For each entity column, the 1-based result column it is read from, or 0 if
+     *                  the result does not have it
+     * @return
+     * @throws SQLException
+     */
+    protected abstract T map(ResultSet resultSet, int[] indexes) throws SQLException;
+
+    @Override
+    public T map(ResultSet resultSet) throws SQLException {
+        Bound bound = last;
+        if (bound == null || bound.resultSet.get() != resultSet) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            String[] resultColumns = new String[metaData.getColumnCount()];
+            for (int i = 0; i < resultColumns.length; i++) {
+                resultColumns[i] = metaData.getColumnLabel(i + 1);
+            }
+            bound = new Bound(resultSet, indexes(resultColumns));
+            last = bound;
+        }
+        return map(resultSet, bound.indexes);
+    }
+
+    /**
+     * @param resultColumns
+     * @return A mapper for results with exactly these columns
+     */
+    RowMapper<T> forColumns(String[] resultColumns) {
+        int[] indexes = indexes(resultColumns);
+        return resultSet -> map(resultSet, indexes);
+    }
+
+    private int[] indexes(String[] resultColumns) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < resultColumns.length; i++) {
+            // Like DbRow, a repeated label resolves to its first column
+            positions.putIfAbsent(RowMappers.normalize(resultColumns[i]), i + 1);
+        }
+        int[] indexes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Integer position = positions.get(RowMappers.normalize(columns[i]));
+            indexes[i] = position != null ? position : 0;
+        }
+        return indexes;
+    }
+
+    /**
+     * Reads a column as the given type, converting as {@link RowMapper#of(Class)} would.
+     * For use by generated code for columns without a dedicated ResultSet getter.
+     */
+    @SuppressWarnings("unchecked")
+    protected static <V> V read(ResultSet resultSet, int column, Class<V> type) throws SQLException {
+        return (V) RowMappers.read(resultSet, column, type);
+    }
+
+    private static final class Bound {
+        private final WeakReference<ResultSet> resultSet;
+        private final int[] indexes;
+
+        Bound(ResultSet resultSet, int[] indexes) {
+            this.resultSet = new WeakReference<>(resultSet);
+            this.indexes = indexes;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import co.aikar.db.DbOptions.ExecutorMode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the executor running {@link DB#queryAsync(String)} and {@link DB#createTransactionAsync(DB.TransactionCallback)}
+ * work for the configured {@link ExecutorMode}.
+ */
+final class DbExecutors {
+    private static final String THREAD_NAME = "DbAsyncQueue Thread Pool";
+
+    private DbExecutors() {}
+
+    static ExecutorService create(DbOptions options) {
+        if (options.getExecutor() != null) {
+            return options.getExecutor();
+        }
+        ThreadFactory factory = r -> {
+            final Thread thread = new Thread(r);
+            thread.setName(THREAD_NAME);
+            return thread;
+        };
+        switch (options.getExecutorMode()) {
+            case VIRTUAL:
+                if (VirtualThreads.isSupported()) {
+                    return VirtualThreads.newExecutor(THREAD_NAME);
+                }
+                return Executors.newCachedThreadPool(factory);
+            case BOUNDED:
+                // Once the queue is full, tasks are rejected rather than run on the submitting thread, which may
+                // be one that must not block
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(options.getExecutorThreads(), options.getExecutorThreads(),
+                        60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(options.getExecutorQueueCapacity()), factory,
+                        new ThreadPoolExecutor.AbortPolicy());
+                executor.allowCoreThreadTimeOut(true);
+                return executor;
+            case CACHED:
+            default:
+                return Executors.newCachedThreadPool(factory);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+/**
+ * Java 8 equivalents of the java.util.concurrent.Flow interfaces, with the same methods and contract,
+ * so results can be delivered with backpressure. On Java 9+, adapt to Flow with method references,
+ * such as subscriber::onNext.
+ */
+public final class DbFlow {
+    private DbFlow() {}
+
+    /**
+     * Produces items for subscribers, no faster than they request them.
+     *
+     * @param <T>
+     */
+    @FunctionalInterface
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receives items once it has requested them through its subscription.
+     *
+     * @param <T>
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * Links a publisher and a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Adds to the number of items the subscriber is ready to receive.
+         *
+         * @param n Must be positive
+         */
+        void request(long n);
+
+        /**
+         * Stops delivery and releases resources, possibly after a few more items were delivered.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Expands a collection parameter into a list of placeholders, for {@code IN (?)} lookups.
+ * <p/>
+ * The number of placeholders is rounded up to a power of two, padding with the last value, so lists of any
+ * length share a handful of SQL strings and their prepared statements stay cached. Lists longer than
+ * {@link DbOptions#setInListMaxSize(int)} are split into chunks run one after another.
+ */
+final class DbInList {
+    private static final int MAX_CACHED = 1024;
+    private static final Map<String, DbInList> templates = new ConcurrentHashMap<>();
+    private static volatile int maxSize = 1024;
+
+    private final int parameter;
+    private final String prefix;
+    private final String suffix;
+    /**
+     * Expanded SQL by power of two.
+     */
+    private final String[] expanded = new String[31];
+    /**
+     * Expanded SQL for the max size when it is not a power of two, kept with that size as the max size
+     * can change when DB is initialized again.
+     */
+    private volatile Expansion capped;
+
+    private DbInList(String query, int parameter) {
+        this.parameter = parameter;
+        int position = findParameter(query, parameter);
+        if (position < 0) {
+            throw new IllegalArgumentException("Query has no parameter " + (parameter + 1) + " to expand: " + query);
+        }
+        this.prefix = query.substring(0, position);
+        this.suffix = query.substring(position + 1);
+    }
+
+    static void start(DbOptions options) {
+        maxSize = options.getInListMaxSize();
+    }
+
+    /**
+     * Runs the query once per chunk of the single collection among the parameters, with that parameter
+     * expanded into the chunk's values. Runs nothing when the collection is empty.
+     *
+     * @param query
+     * @param params
+     * @param handler
+     * @throws SQLException
+     */
+    static void forEachChunk(String query, Object[] params, ChunkHandler handler) throws SQLException {
+        int parameter = -1;
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] instanceof Collection) {
+                if (parameter >= 0) {
+                    throw new IllegalArgumentException("Only one Collection parameter can be expanded: " + query);
+                }
+                parameter = i;
+            }
+        }
+        if (parameter < 0) {
+            throw new IllegalArgumentException("Expected a Collection parameter to expand: " + query);
+        }
+        Object[] values = ((Collection<?>) params[parameter]).toArray();
+        if (values.length == 0) {
+            return;
+        }
+
+        DbInList template = templates.get(query);
+        if (template == null || template.parameter != parameter) {
+            template = new DbInList(query, parameter);
+            if (templates.size() < MAX_CACHED || templates.containsKey(query)) {
+                templates.put(query, template);
+            }
+        }
+
+        int max = maxSize;
+        for (int offset = 0; offset < values.length; offset += max) {
+            int count = Math.min(max, values.length - offset);
+            int bucket = Math.min(Integer.highestOneBit(count) == count ? count : Integer.highestOneBit(count) << 1, max);
+            Object[] args = new Object[params.length - 1 + bucket];
+            System.arraycopy(params, 0, args, 0, parameter);
+            System.arraycopy(values, offset, args, parameter, count);
+            for (int i = count; i < bucket; i++) {
+                args[parameter + i] = values[offset + count - 1];
+            }
+            System.arraycopy(params, parameter + 1, args, parameter + bucket, params.length - parameter - 1);
+            handler.handle(template.sql(bucket), args);
+        }
+    }
+
+    private String sql(int bucket) {
+        if (Integer.bitCount(bucket) != 1) {
+            Expansion capped = this.capped;
+            if (capped == null || capped.size != bucket) {
+                this.capped = capped = new Expansion(bucket, expand(bucket));
+            }
+            return capped.sql;
+        }
+        int slot = Integer.numberOfTrailingZeros(bucket);
+        String sql = expanded[slot];
+        if (sql == null) {
+            expanded[slot] = sql = expand(bucket);
+        }
+        return sql;
+    }
+
+    private String expand(int count) {
+        StringBuilder builder = new StringBuilder(prefix.length() + suffix.length() + count * 3);
+        builder.append(prefix).append('?');
+        for (int i = 1; i < count; i++) {
+            builder.append(", ?");
+        }
+        return builder.append(suffix).toString();
+    }
+
+    /**
+     * @return Position of the 0-based parameter's ?, skipping quoted strings and comments, or -1
+     */
+    private static int findParameter(String query, int parameter) {
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            int end = i + 1;
+            if (c == '\'' || c == '"' || c == '`') {
+                while (end < length && query.charAt(end) != c) {
+                    end += query.charAt(end) == '\\' && c != '`' ? 2 : 1;
+                }
+                end = Math.min(end + 1, length);
+            } else if (c == '#' || c == '-' && query.startsWith("--", i)) {
+                end = query.indexOf('\n', i);
+                end = end < 0 ? length : end + 1;
+            } else if (c == '/' && query.startsWith("/*", i)) {
+                end = query.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+            } else if (c == '?' && parameter-- == 0) {
+                return i;
+            }
+            i = end;
+        }
+        return -1;
+    }
+
+    private static final class Expansion {
+        private final int size;
+        private final String sql;
+
+        Expansion(int size, String sql) {
+            this.size = size;
+            this.sql = sql;
+        }
+    }
+
+    interface ChunkHandler {
+        void handle(String query, Object[] params) throws SQLException;
+    }
+}
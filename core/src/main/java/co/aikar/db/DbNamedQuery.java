@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SQL with named parameters such as {@code :uuid}, parsed once into positional SQL and the name behind
+ * each {@code ?}. Parsed templates are cached, so running one again costs a map lookup.
+ * <p/>
+ * Names start with a letter or underscore and continue with letters, digits and underscores. Quoted strings
+ * and identifiers, comments, {@code ::} casts and {@code :=} assignments are left alone. A name may appear
+ * more than once, but a template can not also use {@code ?} parameters.
+ */
+final class DbNamedQuery {
+    private static final int MAX_CACHED = 1024;
+    private static final Map<String, DbNamedQuery> templates = new ConcurrentHashMap<>();
+
+    private final String sql;
+    private final String[] names;
+    private volatile BeanPlan beanPlan;
+
+    private DbNamedQuery(String sql, String[] names) {
+        this.sql = sql;
+        this.names = names;
+    }
+
+    static DbNamedQuery of(String template) {
+        DbNamedQuery named = templates.get(template);
+        if (named == null) {
+            named = parse(template);
+            if (templates.size() < MAX_CACHED) {
+                templates.put(template, named);
+            }
+        }
+        return named;
+    }
+
+    /**
+     * @return The template with each name replaced by ?
+     */
+    String getSql() {
+        return sql;
+    }
+
+    /**
+     * Positional parameters from a map of names to values.
+     *
+     * @param params
+     * @return
+     */
+    Object[] values(Map<String, ?> params) {
+        if (params == null && names.length > 0) {
+            throw new IllegalArgumentException("No bean or map to read parameter :" + names[0] + " from in " + sql);
+        }
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Object value = params.get(names[i]);
+            if (value == null && !params.containsKey(names[i])) {
+                throw new IllegalArgumentException("No value for parameter :" + names[i] + " in " + sql);
+            }
+            values[i] = value;
+        }
+        return values;
+    }
+
+    /**
+     * Positional parameters from the properties of a bean or record, matched by name as with {@link RowMapper#of(Class)},
+     * or from a map.
+     *
+     * @param bean
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    Object[] values(Object bean) {
+        if (bean == null || bean instanceof Map) {
+            return values((Map<String, ?>) bean);
+        }
+        BeanPlan plan = beanPlan;
+        if (plan == null || plan.type != bean.getClass()) {
+            beanPlan = plan = new BeanPlan(bean.getClass());
+        }
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            try {
+                values[i] = (Object) plan.getters[i].invokeExact(bean);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Could not read parameter :" + names[i] + " from " + plan.type.getName(), e);
+            }
+        }
+        return values;
+    }
+
+    private static DbNamedQuery parse(String template) {
+        StringBuilder sql = new StringBuilder(template.length());
+        List<String> names = new ArrayList<>();
+        int length = template.length();
+        int i = 0;
+        while (i < length) {
+            char c = template.charAt(i);
+            int end = i + 1;
+            if (c == '\'' || c == '"' || c == '`') {
+                while (end < length && template.charAt(end) != c) {
+                    end += template.charAt(end) == '\\' && c != '`' ? 2 : 1;
+                }
+                end = Math.min(end + 1, length);
+            } else if (c == '#' || c == '-' && template.startsWith("--", i)) {
+                end = template.indexOf('\n', i);
+                end = end < 0 ? length : end + 1;
+            } else if (c == '/' && template.startsWith("/*", i)) {
+                end = template.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+            } else if (c == '?') {
+                throw new IllegalArgumentException("Named parameter query can not also use ? parameters: " + template);
+            } else if (c == ':' && end < length) {
+                char next = template.charAt(end);
+                if (next == ':' || next == '=') {
+                    end++;
+                } else if (Character.isLetter(next) || next == '_') {
+                    while (end < length && (Character.isLetterOrDigit(template.charAt(end)) || template.charAt(end) == '_')) {
+                        end++;
+                    }
+                    names.add(template.substring(i + 1, end));
+                    sql.append('?');
+                    i = end;
+                    continue;
+                }
+            }
+            sql.append(template, i, end);
+            i = end;
+        }
+        return new DbNamedQuery(sql.toString(), names.toArray(new String[0]));
+    }
+
+    /**
+     * How to read each parameter from a bean of one class.
+     */
+    private final class BeanPlan {
+        private final Class<?> type;
+        private final MethodHandle[] getters;
+
+        BeanPlan(Class<?> type) {
+            this.type = type;
+            this.getters = new MethodHandle[names.length];
+            for (int i = 0; i < names.length; i++) {
+                getters[i] = RowMappers.getter(type, RowMappers.normalize(names[i]));
+                if (getters[i] == null) {
+                    throw new IllegalArgumentException(type.getName() + " has no property for parameter :" + names[i]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A materialized result held outside the Java heap in direct buffers, for random access to results too
+ * large to keep as DbRows. Only an 8 byte offset per row stays on the heap.
+ * <p/>
+ * Each row is encoded as a null bitmap, then its numeric and boolean columns at fixed offsets, then its
+ * other columns in the same compact binary form the async queue journal uses, each prefixed by its length.
+ * Values are only decoded when read: numeric columns in place, other columns by skipping over the
+ * lengths of the ones before them.
+ * <p/>
+ * Rows are 0-based, columns 1-based like JDBC or looked up by label. YOU MUST CLOSE THIS RESULT to free
+ * its memory, which then happens immediately rather than whenever the GC gets to it. It may be read from
+ * several threads, closing waiting for reads in progress.
+ */
+public final class DbOffHeapResult implements AutoCloseable {
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final DbRowSchema schema;
+    private final int nullBytes;
+    /**
+     * Offset of each numeric column within its row, or -1 for columns stored in the variable area.
+     */
+    private final int[] fixedOffsets;
+    private final int variableStart;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    /**
+     * Chunk index in the high 32 bits and offset within the chunk in the low 32 bits, per row.
+     */
+    private long[] rows = new long[64];
+    private int size = 0;
+    private long memoryUsed = 0;
+    private volatile boolean closed = false;
+    private final StampedLock lock = new StampedLock();
+
+    private final Scratch scratch = new Scratch();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+
+    DbOffHeapResult(DbRowSchema schema) {
+        this.schema = schema;
+        this.nullBytes = (schema.size() + 7) >>> 3;
+        this.fixedOffsets = new int[schema.size()];
+        int offset = nullBytes;
+        for (int i = 0; i < fixedOffsets.length; i++) {
+            int width = width(schema.getKind(i));
+            fixedOffsets[i] = width > 0 ? offset : -1;
+            offset += width;
+        }
+        this.variableStart = offset;
+    }
+
+    private static int width(DbRowSchema.Kind kind) {
+        switch (kind) {
+            case LONG:
+            case DOUBLE:
+                return 8;
+            case INT:
+            case FLOAT:
+                return 4;
+            case SHORT:
+                return 2;
+            case BYTE:
+            case BOOLEAN:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Encodes and appends the current row of the result set.
+     */
+    void add(ResultSet resultSet) throws SQLException {
+        ensureOpen();
+        scratch.reset();
+        byte[] nulls = new byte[variableStart];
+        try {
+            scratchOut.write(nulls);
+            for (int i = 0; i < fixedOffsets.length; i++) {
+                int column = i + 1;
+                switch (schema.getKind(i)) {
+                    case LONG:
+                        scratch.putLong(fixedOffsets[i], resultSet.getLong(column));
+                        break;
+                    case INT:
+                        scratch.putInt(fixedOffsets[i], resultSet.getInt(column));
+                        break;
+                    case SHORT:
+                        scratch.putShort(fixedOffsets[i], resultSet.getShort(column));
+                        break;
+                    case BYTE:
+                        scratch.put(fixedOffsets[i], resultSet.getByte(column));
+                        break;
+                    case BOOLEAN:
+                        scratch.put(fixedOffsets[i], (byte) (resultSet.getBoolean(column) ? 1 : 0));
+                        break;
+                    case DOUBLE:
+                        scratch.putLong(fixedOffsets[i], Double.doubleToRawLongBits(resultSet.getDouble(column)));
+                        break;
+                    case FLOAT:
+                        scratch.putInt(fixedOffsets[i], Float.floatToRawIntBits(resultSet.getFloat(column)));
+                        break;
+                    default:
+                        Object value = resultSet.getObject(column);
+                        int lengthAt = scratch.size();
+                        scratchOut.writeInt(0);
+                        if (value != null) {
+                            if (!AsyncDbSpool.canEncode(value)) {
+                                throw new SQLException("Can not store values of " + value.getClass().getName() + " off heap, column " + schema.getColumn(i));
+                            }
+                            AsyncDbSpool.writeValue(scratchOut, value);
+                            scratch.putInt(lengthAt, scratch.size() - lengthAt - 4);
+                        }
+                        if (resultSet.wasNull()) {
+                            scratch.setNull(i);
+                        }
+                        continue;
+                }
+                if (resultSet.wasNull()) {
+                    scratch.setNull(i);
+                }
+            }
+        } catch (IOException e) {
+            throw new SQLException(e);
+        }
+        append(scratch.buffer(), scratch.size());
+    }
+
+    private void append(byte[] row, int length) {
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < length) {
+            chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, length));
+            chunks.add(chunk);
+            memoryUsed += chunk.capacity();
+        }
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, size * 2);
+        }
+        rows[size++] = ((long) (chunks.size() - 1) << 32) | chunk.position();
+        chunk.put(row, 0, length);
+    }
+
+    /**
+     * Shrinks the row index to the number of rows read.
+     */
+    void trim() {
+        rows = Arrays.copyOf(rows, size);
+    }
+
+    /**
+     * @return Number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Bytes of direct memory held by this result
+     */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public int getColumnCount() {
+        return fixedOffsets.length;
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return The column's label
+     */
+    public String getColumnName(int column) {
+        return schema.getColumn(position(column));
+    }
+
+    /**
+     * @param column
+     * @return The 1-based index of the column
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public int findColumn(String column) {
+        int index = schema.indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+        return index + 1;
+    }
+
+    public boolean isNull(int row, int column) {
+        long stamp = lockOpen();
+        try {
+            return isNull(chunk(row), offset(row), position(column));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean isNull(int row, String column) {
+        return isNull(row, findColumn(column));
+    }
+
+    /**
+     * @return The value, or 0 if it was null
+     */
+    public long getLong(int row, int column) {
+        long stamp = lockOpen();
+        try {
+            return readLong(row, column);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private long readLong(int row, int column) {
+        int index = position(column);
+        ByteBuffer chunk = chunk(row);
+        int offset = offset(row);
+        if (isNull(chunk, offset, index)) {
+            return 0;
+        }
+        switch (schema.getKind(index)) {
+            case LONG:
+                return chunk.getLong(offset + fixedOffsets[index]);
+            case DOUBLE:
+            case FLOAT:
+                return (long) readDouble(row, column);
+            case OBJECT:
+                Object value = readObject(chunk, offset, index);
+                if (value instanceof Boolean) {
+                    return (Boolean) value ? 1 : 0;
+                }
+                return ((Number) value).longValue();
+            default:
+                return readIntegral(chunk, offset, index);
+        }
+    }
+
+    public long getLong(int row, String column) {
+        return getLong(row, findColumn(column));
+    }
+
+    /**
+     * @return The value, or 0 if it was null
+     */
+    public int getInt(int row, int column) {
+        return (int) getLong(row, column);
+    }
+
+    public int getInt(int row, String column) {
+        return getInt(row, findColumn(column));
+    }
+
+    /**
+     * @return The value, or 0 if it was null
+     */
+    public double getDouble(int row, int column) {
+        long stamp = lockOpen();
+        try {
+            return readDouble(row, column);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private double readDouble(int row, int column) {
+        int index = position(column);
+        ByteBuffer chunk = chunk(row);
+        int offset = offset(row);
+        if (isNull(chunk, offset, index)) {
+            return 0;
+        }
+        switch (schema.getKind(index)) {
+            case DOUBLE:
+                return chunk.getDouble(offset + fixedOffsets[index]);
+            case FLOAT:
+                return chunk.getFloat(offset + fixedOffsets[index]);
+            case OBJECT:
+                Object value = readObject(chunk, offset, index);
+                if (value instanceof Boolean) {
+                    return (Boolean) value ? 1 : 0;
+                }
+                return ((Number) value).doubleValue();
+            default:
+                return readIntegral(chunk, offset, index);
+        }
+    }
+
+    public double getDouble(int row, String column) {
+        return getDouble(row, findColumn(column));
+    }
+
+    /**
+     * @return The value, non zero numbers being true, or false if it was null
+     */
+    public boolean getBoolean(int row, int column) {
+        return getDouble(row, column) != 0;
+    }
+
+    public boolean getBoolean(int row, String column) {
+        return getBoolean(row, findColumn(column));
+    }
+
+    /**
+     * @return The value decoded as the class the driver returned for the column, or null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(int row, int column) {
+        long stamp = lockOpen();
+        try {
+            int index = position(column);
+            return (T) decode(chunk(row), offset(row), index);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public <T> T getObject(int row, String column) {
+        return getObject(row, findColumn(column));
+    }
+
+    /**
+     * Decodes a whole row.
+     *
+     * @param row
+     * @return
+     */
+    public DbRow getRow(int row) {
+        long stamp = lockOpen();
+        try {
+            ByteBuffer chunk = chunk(row);
+            int offset = offset(row);
+            Object[] values = new Object[fixedOffsets.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = decode(chunk, offset, i);
+            }
+            return new DbRow(schema, values);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Frees the direct memory behind this result, once reads in progress on other threads are done.
+     * It can not be read afterwards.
+     */
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (ByteBuffer chunk : chunks) {
+                DbBuffers.release(chunk);
+            }
+            chunks.clear();
+            memoryUsed = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private Object decode(ByteBuffer chunk, int offset, int index) {
+        if (isNull(chunk, offset, index)) {
+            return null;
+        }
+        int at = offset + fixedOffsets[index];
+        switch (schema.getKind(index)) {
+            case LONG:
+                return chunk.getLong(at);
+            case INT:
+                return chunk.getInt(at);
+            case SHORT:
+                return chunk.getShort(at);
+            case BYTE:
+                return chunk.get(at);
+            case BOOLEAN:
+                return chunk.get(at) != 0;
+            case DOUBLE:
+                return chunk.getDouble(at);
+            case FLOAT:
+                return chunk.getFloat(at);
+            default:
+                return readObject(chunk, offset, index);
+        }
+    }
+
+    private long readIntegral(ByteBuffer chunk, int offset, int index) {
+        int at = offset + fixedOffsets[index];
+        switch (schema.getKind(index)) {
+            case INT:
+                return chunk.getInt(at);
+            case SHORT:
+                return chunk.getShort(at);
+            default:
+                return chunk.get(at);
+        }
+    }
+
+    private Object readObject(ByteBuffer chunk, int offset, int index) {
+        int at = offset + variableStart;
+        for (int i = 0; i < index; i++) {
+            if (fixedOffsets[i] < 0) {
+                at += 4 + chunk.getInt(at);
+            }
+        }
+        byte[] bytes = new byte[chunk.getInt(at)];
+        ByteBuffer view = chunk.duplicate();
+        view.position(at + 4);
+        view.get(bytes);
+        try {
+            return AsyncDbSpool.readValue(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt off heap row", e);
+        }
+    }
+
+    private boolean isNull(ByteBuffer chunk, int offset, int index) {
+        return (chunk.get(offset + (index >>> 3)) & (1 << (index & 7))) != 0;
+    }
+
+    private ByteBuffer chunk(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+        return chunks.get((int) (rows[row] >>> 32));
+    }
+
+    private int offset(int row) {
+        return (int) rows[row];
+    }
+
+    private int position(int column) {
+        if (column < 1 || column > fixedOffsets.length) {
+            throw new IndexOutOfBoundsException("Column " + column + " of " + fixedOffsets.length);
+        }
+        return column - 1;
+    }
+
+    /**
+     * Holds off {@link #close()} while a read uses the chunks, as reading freed memory would crash the JVM.
+     *
+     * @return Stamp to unlock the read with
+     */
+    private long lockOpen() {
+        long stamp = lock.readLock();
+        if (closed) {
+            lock.unlockRead(stamp);
+            throw new IllegalStateException("Result has been closed");
+        }
+        return stamp;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Result has been closed");
+        }
+    }
+
+    /**
+     * Reusable row encoding buffer, with absolute writes into the part already written.
+     */
+    private static final class Scratch extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+
+        void put(int at, byte value) {
+            buf[at] = value;
+        }
+
+        void putShort(int at, short value) {
+            buf[at] = (byte) (value >>> 8);
+            buf[at + 1] = (byte) value;
+        }
+
+        void putInt(int at, int value) {
+            putShort(at, (short) (value >>> 16));
+            putShort(at + 2, (short) value);
+        }
+
+        void putLong(int at, long value) {
+            putInt(at, (int) (value >>> 32));
+            putInt(at + 4, (int) value);
+        }
+
+        void setNull(int index) {
+            buf[index >>> 3] |= (byte) (1 << (index & 7));
+        }
+    }
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Tuning options passed to {@link DB#initialize(String, String, String, DbOptions)}.
+ * <p/>
+ * Every setter returns this instance so options can be chained. The defaults
+ * match the behavior of {@link DB#initialize(String, String, String)}.
+ */
+public class DbOptions {
+    private long asyncLingerMillis = 0;
+    private int asyncLanes = 1;
+    private int asyncBatchSize = 100;
+    private int asyncGroupCommitSize = 1;
+    private int asyncQueueCapacity = 0;
+    private OverflowPolicy asyncOverflowPolicy = OverflowPolicy.BLOCK;
+    private File asyncSpoolDirectory;
+    private PriorityMode asyncPriorityMode = PriorityMode.STRICT;
+    private int[] asyncPriorityWeights = {8, 4, 1};
+    private int asyncMaxStarvation = 64;
+    private long asyncCoalesceDelayMillis = 250;
+    private long asyncCounterFlushMillis = 1000;
+    private long asyncShutdownTimeoutMillis = 0;
+    private ExecutorMode executorMode = ExecutorMode.CACHED;
+    private int executorThreads = 5;
+    private int executorQueueCapacity = 1024;
+    private ExecutorService executor;
+    private int streamFetchSize = Integer.MIN_VALUE;
+    private long resultMemoryBudget = 0;
+    private long globalResultMemoryBudget = 0;
+    private File resultSpillDirectory;
+    private int statementCacheSize = 64;
+    private int inListMaxSize = 1024;
+
+    /**
+     * How long the async queue waits after being woken before draining, so that
+     * statements queued in quick succession are processed together.
+     * <p/>
+     * 0 (the default) dispatches as soon as a statement is queued.
+     *
+     * @param millis
+     * @return
+     */
+    public DbOptions setAsyncLingerMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Linger must not be negative");
+        }
+        this.asyncLingerMillis = millis;
+        return this;
+    }
+
+    public long getAsyncLingerMillis() {
+        return asyncLingerMillis;
+    }
+
+    /**
+     * Number of worker lanes draining the async queue. Each lane uses its own connection while it has work,
+     * so this should stay below the pool size to leave connections for synchronous queries.
+     * <p/>
+     * With more than one lane, only statements sharing an ordering key keep their relative order.
+     *
+     * @param lanes
+     * @return
+     */
+    public DbOptions setAsyncLanes(int lanes) {
+        if (lanes < 1) {
+            throw new IllegalArgumentException("At least one async lane is required");
+        }
+        this.asyncLanes = lanes;
+        return this;
+    }
+
+    public int getAsyncLanes() {
+        return asyncLanes;
+    }
+
+    /**
+     * Maximum number of queued updates sharing the same SQL that are sent as a single JDBC batch.
+     * 1 disables batching.
+     *
+     * @param batchSize
+     * @return
+     */
+    public DbOptions setAsyncBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.asyncBatchSize = batchSize;
+        return this;
+    }
+
+    public int getAsyncBatchSize() {
+        return asyncBatchSize;
+    }
+
+    /**
+     * Maximum number of consecutive queued updates committed together in one transaction, so they share a
+     * single log flush on the server. If one of them fails, each is replayed on its own in autocommit mode.
+     * <p/>
+     * 1 (the default) runs every update in autocommit mode.
+     *
+     * @param groupCommitSize
+     * @return
+     */
+    public DbOptions setAsyncGroupCommitSize(int groupCommitSize) {
+        if (groupCommitSize < 1) {
+            throw new IllegalArgumentException("Group commit size must be at least 1");
+        }
+        this.asyncGroupCommitSize = groupCommitSize;
+        return this;
+    }
+
+    public int getAsyncGroupCommitSize() {
+        return asyncGroupCommitSize;
+    }
+
+    /**
+     * Maximum number of statements held in memory by the async queue, split evenly across the lanes.
+     * 0 (the default) leaves the queue unbounded.
+     *
+     * @param capacity
+     * @return
+     */
+    public DbOptions setAsyncQueueCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        this.asyncQueueCapacity = capacity;
+        return this;
+    }
+
+    public int getAsyncQueueCapacity() {
+        return asyncQueueCapacity;
+    }
+
+    /**
+     * What to do with statements queued while the async queue is at capacity.
+     *
+     * @param policy
+     * @return
+     */
+    public DbOptions setAsyncOverflowPolicy(OverflowPolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("Overflow policy must not be null");
+        }
+        this.asyncOverflowPolicy = policy;
+        return this;
+    }
+
+    public OverflowPolicy getAsyncOverflowPolicy() {
+        return asyncOverflowPolicy;
+    }
+
+    /**
+     * Directory holding the async queue's on-disk journal, required by {@link OverflowPolicy#SPILL}.
+     * <p/>
+     * When set, updates queued through {@link DB#executeUpdateAsync(String, Object...)} are also moved to
+     * the journal while the database is unreachable and when {@link DB#close()} runs past
+     * {@link #setAsyncShutdownTimeoutMillis(long)}, then replayed in order once the database is available,
+     * including on the next start. Updates that lose their connection while running are journaled as well.
+     * <p/>
+     * The future of a journaled update completes with {@link java.sql.Statement#SUCCESS_NO_INFO} as soon as it
+     * is written, so a failure during replay is only reported through the default error handling.
+     * Replay is at least once: an update that committed just before a crash may run again on the next start.
+     *
+     * @param directory
+     * @return
+     */
+    public DbOptions setAsyncSpoolDirectory(File directory) {
+        this.asyncSpoolDirectory = directory;
+        return this;
+    }
+
+    public File getAsyncSpoolDirectory() {
+        return asyncSpoolDirectory;
+    }
+
+    /**
+     * How the async queue chooses between {@link AsyncDbStatement.Priority} classes.
+     *
+     * @param mode
+     * @return
+     */
+    public DbOptions setAsyncPriorityMode(PriorityMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Priority mode must not be null");
+        }
+        this.asyncPriorityMode = mode;
+        return this;
+    }
+
+    public PriorityMode getAsyncPriorityMode() {
+        return asyncPriorityMode;
+    }
+
+    /**
+     * Share of the queue each priority class is served in {@link PriorityMode#WEIGHTED} mode.
+     * Defaults to 8, 4 and 1.
+     *
+     * @param high
+     * @param normal
+     * @param low
+     * @return
+     */
+    public DbOptions setAsyncPriorityWeights(int high, int normal, int low) {
+        if (high < 1 || normal < 1 || low < 1) {
+            throw new IllegalArgumentException("Priority weights must be at least 1");
+        }
+        this.asyncPriorityWeights = new int[]{high, normal, low};
+        return this;
+    }
+
+    public int[] getAsyncPriorityWeights() {
+        return asyncPriorityWeights.clone();
+    }
+
+    /**
+     * In {@link PriorityMode#STRICT} mode, how many statements of higher classes may be served while a lower
+     * class is waiting before one of its statements is served anyway. Defaults to 64.
+     *
+     * @param maxStarvation
+     * @return
+     */
+    public DbOptions setAsyncMaxStarvation(int maxStarvation) {
+        if (maxStarvation < 1) {
+            throw new IllegalArgumentException("Max starvation must be at least 1");
+        }
+        this.asyncMaxStarvation = maxStarvation;
+        return this;
+    }
+
+    public int getAsyncMaxStarvation() {
+        return asyncMaxStarvation;
+    }
+
+    /**
+     * How long {@link DB#executeCoalescedUpdateAsync(Object, String, Object...)} holds an update before queueing it,
+     * during which newer updates with the same coalescing key replace it. Defaults to 250.
+     *
+     * @param millis
+     * @return
+     */
+    public DbOptions setAsyncCoalesceDelayMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Coalesce delay must not be negative");
+        }
+        this.asyncCoalesceDelayMillis = millis;
+        return this;
+    }
+
+    public long getAsyncCoalesceDelayMillis() {
+        return asyncCoalesceDelayMillis;
+    }
+
+    /**
+     * How often increments made through {@link DB#incrementAsync(String, String, String, Object, long)}
+     * are flushed to the database. Defaults to 1000.
+     *
+     * @param millis
+     * @return
+     */
+    public DbOptions setAsyncCounterFlushMillis(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("Counter flush interval must be at least 1ms");
+        }
+        this.asyncCounterFlushMillis = millis;
+        return this;
+    }
+
+    public long getAsyncCounterFlushMillis() {
+        return asyncCounterFlushMillis;
+    }
+
+    /**
+     * How long {@link DB#close()} keeps flushing the async queue. Whatever is left afterwards is kept in the
+     * spool journal if {@link #setAsyncSpoolDirectory(File)} is set, and failed otherwise.
+     * 0 (the default) flushes until done.
+     *
+     * @param millis
+     * @return
+     */
+    public DbOptions setAsyncShutdownTimeoutMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Shutdown timeout must not be negative");
+        }
+        this.asyncShutdownTimeoutMillis = millis;
+        return this;
+    }
+
+    public long getAsyncShutdownTimeoutMillis() {
+        return asyncShutdownTimeoutMillis;
+    }
+
+    /**
+     * Kind of executor running {@link DB#queryAsync(String)} and {@link DB#createTransactionAsync(DB.TransactionCallback)}.
+     * {@link ExecutorMode#VIRTUAL} silently uses {@link ExecutorMode#CACHED} before Java 21.
+     *
+     * @param mode
+     * @return
+     */
+    public DbOptions setExecutorMode(ExecutorMode mode) {
+        if (mode == null) {
+            throw new IllegalArgumentException("Executor mode must not be null");
+        }
+        this.executorMode = mode;
+        return this;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    /**
+     * Number of threads of the {@link ExecutorMode#BOUNDED} executor. Defaults to 5, the size of the connection pool.
+     *
+     * @param threads
+     * @return
+     */
+    public DbOptions setExecutorThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one executor thread is required");
+        }
+        this.executorThreads = threads;
+        return this;
+    }
+
+    public int getExecutorThreads() {
+        return executorThreads;
+    }
+
+    /**
+     * Number of tasks the {@link ExecutorMode#BOUNDED} executor queues before rejecting more. Defaults to 1024.
+     *
+     * @param capacity
+     * @return
+     */
+    public DbOptions setExecutorQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Executor queue capacity must be at least 1");
+        }
+        this.executorQueueCapacity = capacity;
+        return this;
+    }
+
+    public int getExecutorQueueCapacity() {
+        return executorQueueCapacity;
+    }
+
+    /**
+     * Uses the given executor instead of creating one, ignoring {@link #setExecutorMode(ExecutorMode)}.
+     *
+     * @param executor
+     * @return
+     */
+    public DbOptions setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Fetch size of statements streaming their results with {@link DB#stream(String, Object...)}.
+     * Defaults to Integer.MIN_VALUE, which makes MySQL send rows one at a time instead of buffering the
+     * whole result; other drivers expect a positive number of rows per round trip.
+     *
+     * @param fetchSize
+     * @return
+     */
+    public DbOptions setStreamFetchSize(int fetchSize) {
+        if (fetchSize < 0 && fetchSize != Integer.MIN_VALUE) {
+            throw new IllegalArgumentException("Fetch size must not be negative, other than Integer.MIN_VALUE");
+        }
+        this.streamFetchSize = fetchSize;
+        return this;
+    }
+
+    public int getStreamFetchSize() {
+        return streamFetchSize;
+    }
+
+    /**
+     * Approximate heap bytes a single result read with {@link DbStatement#getResults()} may hold.
+     * Rows past the budget are written to a temporary memory-mapped file and read back as the list is
+     * accessed. Defaults to 0, meaning no limit.
+     *
+     * @param bytes
+     * @return
+     */
+    public DbOptions setResultMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative");
+        }
+        this.resultMemoryBudget = bytes;
+        return this;
+    }
+
+    public long getResultMemoryBudget() {
+        return resultMemoryBudget;
+    }
+
+    /**
+     * Approximate heap bytes all results read with {@link DbStatement#getResults()} may hold together.
+     * A result holds its share until it is garbage collected, and rows past the budget are spilled
+     * like those past {@link #setResultMemoryBudget(long)}. Defaults to 0, meaning no limit.
+     *
+     * @param bytes
+     * @return
+     */
+    public DbOptions setGlobalResultMemoryBudget(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative");
+        }
+        this.globalResultMemoryBudget = bytes;
+        return this;
+    }
+
+    public long getGlobalResultMemoryBudget() {
+        return globalResultMemoryBudget;
+    }
+
+    /**
+     * Directory for the temporary files of results over their memory budget.
+     * Defaults to the system temporary directory.
+     *
+     * @param directory
+     * @return
+     */
+    public DbOptions setResultSpillDirectory(File directory) {
+        this.resultSpillDirectory = directory;
+        return this;
+    }
+
+    public File getResultSpillDirectory() {
+        return resultSpillDirectory;
+    }
+
+    /**
+     * Number of prepared statements each pooled connection keeps open for reuse by SQL, closing the least
+     * recently used beyond that. Defaults to 64, 0 disables the cache.
+     *
+     * @param size
+     * @return
+     * @see DB#getStatementCacheHits()
+     */
+    public DbOptions setStatementCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.statementCacheSize = size;
+        return this;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Most values a collection parameter of {@link DB#getResultsIn(String, Object...)} expands to in one
+     * execution, longer lists being run in chunks of this size. Defaults to 1024.
+     *
+     * @param size
+     * @return
+     */
+    public DbOptions setInListMaxSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be positive");
+        }
+        this.inListMaxSize = size;
+        return this;
+    }
+
+    public int getInListMaxSize() {
+        return inListMaxSize;
+    }
+
+    public enum ExecutorMode {
+        /**
+         * Unbounded pool of platform threads, creating threads as needed.
+         */
+        CACHED,
+        /**
+         * Fixed number of platform threads with a bounded queue. When the queue is full, tasks are rejected:
+         * {@link DB#queryAsync(String)} returns a future failed with a {@link java.util.concurrent.RejectedExecutionException}
+         * and {@link DB#createTransactionAsync(DB.TransactionCallback, Runnable, Runnable)} runs its failure callback.
+         */
+        BOUNDED,
+        /**
+         * A new virtual thread per task on Java 21 or newer, falling back to {@link #CACHED} without notice on older versions.
+         */
+        VIRTUAL
+    }
+
+    public enum PriorityMode {
+        /**
+         * Always serves the highest waiting class, except that a waiting lower class is served once
+         * every {@link #setAsyncMaxStarvation(int)} statements.
+         */
+        STRICT,
+        /**
+         * Serves waiting classes in proportion to {@link #setAsyncPriorityWeights(int, int, int)}.
+         */
+        WEIGHTED
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * The queueing thread waits until there is room. Statements queued from an async lane are always accepted.
+         */
+        BLOCK,
+        /**
+         * The statement is failed immediately through {@link AsyncDbStatement#onError(java.sql.SQLException)}.
+         */
+        REJECT,
+        /**
+         * The oldest statement of the lowest priority class waiting on the same lane is failed to make room.
+         * If only higher priority statements are waiting, the new statement is failed instead.
+         */
+        DROP_OLDEST,
+        /**
+         * Updates queued through {@link DB#executeUpdateAsync(String, Object...)} are written to the spool
+         * journal and moved back into the queue once it has room; their future completes with
+         * {@link java.sql.Statement#SUCCESS_NO_INFO} once spooled. Other statements wait as with {@link #BLOCK}.
+         */
+        SPILL
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.io.File;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds the heap held by results read with {@link DbStatement#getResults()}, per result and across all
+ * of them, spilling the rows past either budget to disk with {@link DbSpilledResultList}.
+ * <p/>
+ * Heap sizes are estimates from the column values. A result keeps its share of the global budget until it
+ * is garbage collected, at which point its share is returned and its spill mapping and file are released.
+ */
+final class DbResultBudget {
+    private static volatile long queryBudget = 0;
+    private static volatile long globalBudget = 0;
+    private static volatile File spillDirectory;
+    private static final AtomicLong reserved = new AtomicLong();
+    private static final ReferenceQueue<List<DbRow>> collected = new ReferenceQueue<>();
+    private static final Set<Share> shares = ConcurrentHashMap.newKeySet();
+
+    private DbResultBudget() {}
+
+    static void start(DbOptions options) {
+        queryBudget = options.getResultMemoryBudget();
+        globalBudget = options.getGlobalResultMemoryBudget();
+        spillDirectory = options.getResultSpillDirectory();
+    }
+
+    static File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * Reads the remaining rows of the statement, keeping them on the heap while within budget.
+     *
+     * @param statement
+     * @param schema Layout of the statement's rows
+     * @return
+     * @throws SQLException
+     */
+    static List<DbRow> read(DbStatement statement, DbRowSchema schema) throws SQLException {
+        // Also run here, as reserve only does with a global budget and spills are tracked without one
+        expunge();
+        long query = queryBudget;
+        long global = globalBudget;
+        ArrayList<DbRow> rows = new ArrayList<>();
+        if (query <= 0 && global <= 0) {
+            DbRow row;
+            while ((row = statement.getNextRow()) != null) {
+                rows.add(row);
+            }
+            return rows;
+        }
+        if (query <= 0) {
+            query = Long.MAX_VALUE;
+        }
+
+        long used = 0;
+        DbSpilledResultList spilled = null;
+        try {
+            DbRow row;
+            while ((row = statement.getNextRow()) != null) {
+                if (spilled != null) {
+                    spilled.spill(row);
+                    continue;
+                }
+                long size = estimate(row, schema.size());
+                if (used + size <= query && reserve(size, global)) {
+                    used += size;
+                    rows.add(row);
+                } else {
+                    rows.trimToSize();
+                    spilled = new DbSpilledResultList(schema, rows);
+                    spilled.spill(row);
+                }
+            }
+            if (spilled != null) {
+                spilled.finish();
+            }
+        } catch (SQLException | RuntimeException e) {
+            release(used, global);
+            if (spilled != null) {
+                spilled.discard();
+            }
+            throw e;
+        }
+
+        List<DbRow> result = spilled != null ? spilled : rows;
+        if (global > 0 && used > 0 || spilled != null) {
+            shares.add(new Share(result, global > 0 ? used : 0, spilled));
+        }
+        return result;
+    }
+
+    private static boolean reserve(long bytes, long global) {
+        if (global <= 0) {
+            return true;
+        }
+        expunge();
+        long current;
+        do {
+            current = reserved.get();
+            if (current + bytes > global) {
+                return false;
+            }
+        } while (!reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    private static void release(long bytes, long global) {
+        if (global > 0) {
+            reserved.addAndGet(-bytes);
+        }
+    }
+
+    /**
+     * Returns the shares of results that have been garbage collected.
+     */
+    private static void expunge() {
+        Reference<? extends List<DbRow>> reference;
+        while ((reference = collected.poll()) != null) {
+            Share share = (Share) reference;
+            shares.remove(share);
+            reserved.addAndGet(-share.bytes);
+            if (share.spill != null) {
+                share.spill.release();
+            }
+        }
+    }
+
+    /**
+     * Rough heap size of a row and its values, including the map entry views it hands out.
+     *
+     * @param row
+     * @param columns
+     * @return
+     */
+    static long estimate(DbRow row, int columns) {
+        long size = 64 + 16L * columns;
+        for (int i = 1; i <= columns; i++) {
+            size += estimate(row.getObject(i));
+        }
+        return size;
+    }
+
+    private static long estimate(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        } else if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            return 64;
+        } else if (value instanceof Number || value instanceof Boolean) {
+            return 16;
+        }
+        return 32;
+    }
+
+    /**
+     * A result's hold on the global budget and its spill file, returned once the result is collected.
+     */
+    private static final class Share extends PhantomReference<List<DbRow>> {
+        private final long bytes;
+        private final DbSpilledResultList.Spill spill;
+
+        Share(List<DbRow> result, long bytes, DbSpilledResultList spilled) {
+            super(result, collected);
+            this.bytes = bytes;
+            this.spill = spilled != null ? spilled.getSpill() : null;
+        }
+    }
+}
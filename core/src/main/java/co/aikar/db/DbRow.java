@@ -23,13 +23,101 @@
 
 package co.aikar.db;
 
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 /**
  * TypeDef alias for results with a template return type getter
  * so casting/implicit getInt type calls are not needed.
+ * <p/>
+ * Rows read from a result set store their values in an array laid out by a {@link DbRowSchema}
+ * shared by every row of that result, instead of a hash table per row. They remain fully
+ * mutable maps; columns added that are not part of the schema are kept on the side.
+ * <p/>
+ * Numeric and boolean columns are held unboxed and only boxed, to the class the driver reports for the
+ * column, when read through the map API. Use the primitive getters to read them without allocating.
  */
-public class DbRow extends HashMap<String, Object> {
+public class DbRow extends AbstractMap<String, Object> implements Cloneable, Serializable {
+    private static final long serialVersionUID = 1L;
+    /**
+     * Marks a schema column removed from this row.
+     */
+    private static final Object ABSENT = Marker.ABSENT;
+    /**
+     * Marks a schema column whose value is held in the primitive array.
+     */
+    private static final Object PRIMITIVE = Marker.PRIMITIVE;
+
+    private final DbRowSchema schema;
+    private final Object[] values;
+    private final long[] primitives;
+    private int removed = 0;
+    private HashMap<String, Object> extra;
+    private transient Set<Entry<String, Object>> entrySet;
+
+    public DbRow() {
+        this(DbRowSchema.EMPTY, new Object[0], new long[0]);
+    }
+
+    DbRow(DbRowSchema schema, Object[] values) {
+        this(schema, values, new long[schema.primitiveCount()]);
+    }
+
+    private DbRow(DbRowSchema schema, Object[] values, long[] primitives) {
+        this.schema = schema;
+        this.values = values;
+        this.primitives = primitives;
+    }
+
+    /**
+     * Reads the current row of the result set, by column index, laid out by the schema.
+     *
+     * @param schema
+     * @param resultSet
+     * @return
+     * @throws SQLException
+     */
+    static DbRow read(DbRowSchema schema, ResultSet resultSet) throws SQLException {
+        Object[] values = new Object[schema.size()];
+        long[] primitives = new long[schema.primitiveCount()];
+        for (int i = 0; i < values.length; i++) {
+            int slot = schema.getSlot(i);
+            if (slot < 0) {
+                values[i] = resultSet.getObject(i + 1);
+                continue;
+            }
+            long bits;
+            switch (schema.getKind(i)) {
+                case BOOLEAN:
+                    bits = resultSet.getBoolean(i + 1) ? 1 : 0;
+                    break;
+                case DOUBLE:
+                    bits = Double.doubleToRawLongBits(resultSet.getDouble(i + 1));
+                    break;
+                case FLOAT:
+                    bits = Double.doubleToRawLongBits(resultSet.getFloat(i + 1));
+                    break;
+                default:
+                    bits = resultSet.getLong(i + 1);
+            }
+            if (resultSet.wasNull()) {
+                values[i] = null;
+            } else {
+                values[i] = PRIMITIVE;
+                primitives[slot] = bits;
+            }
+        }
+        return new DbRow(schema, values, primitives);
+    }
+
     /**
      * Get the result as proper type.
      * <p/>
@@ -41,7 +129,7 @@ public class DbRow extends HashMap<String, Object> {
      * @return Object of the matching type of the result.
      */
     public <T> T get(String column) {
-        return (T) super.get(column);
+        return (T) get((Object) column);
     }
     /**
      * Get the result as proper type., returning default if not found.
@@ -54,7 +142,7 @@ public class DbRow extends HashMap<String, Object> {
      * @return Object of the matching type of the result.
      */
     public <T> T get(String column, T def) {
-        T res = (T) super.get(column);
+        T res = (T) get((Object) column);
         if (res == null) {
             return def;
         }
@@ -71,7 +159,7 @@ public class DbRow extends HashMap<String, Object> {
      * @return Object of the matching type of the result.
      */
     public <T> T remove(String column) {
-        return (T) super.remove(column);
+        return (T) remove((Object) column);
     }
 
     /**
@@ -85,16 +173,450 @@ public class DbRow extends HashMap<String, Object> {
      * @return Object of the matching type of the result.
      */
     public <T> T remove(String column, T def) {
-        T res = (T) super.remove(column);
+        T res = (T) remove((Object) column);
         if (res == null) {
             return def;
         }
         return res;
     }
 
+    /**
+     * Get a result by its 1-based position in the select list, like JDBC.
+     *
+     * @param <T>
+     * @param column
+     * @return Object of the matching type of the result.
+     */
+    public <T> T getObject(int column) {
+        return (T) valueAt(position(column));
+    }
+
+    /**
+     * Get a numeric result by its 1-based position in the select list as a long.
+     *
+     * @param column
+     * @return The value, or 0 if it was null.
+     */
+    public long getLong(int column) {
+        return longAt(position(column), 0);
+    }
+
+    /**
+     * Get a numeric result as a long without boxing.
+     *
+     * @param column
+     * @return The value, or 0 if it was null or missing.
+     */
+    public long getLong(String column) {
+        return getLong(column, 0);
+    }
+
+    /**
+     * Get a numeric result as a long without boxing.
+     *
+     * @param column
+     * @param ifNull Returned if the value was null or missing.
+     * @return
+     */
+    public long getLong(String column, long ifNull) {
+        int index = schema.indexOf(column);
+        return index >= 0 ? longAt(index, ifNull) : toLong(extra(column), ifNull);
+    }
+
+    /**
+     * Get a numeric result by its 1-based position in the select list as an int.
+     *
+     * @param column
+     * @return The value, or 0 if it was null.
+     */
+    public int getInt(int column) {
+        return (int) longAt(position(column), 0);
+    }
+
+    /**
+     * Get a numeric result as an int without boxing.
+     *
+     * @param column
+     * @return The value, or 0 if it was null or missing.
+     */
+    public int getInt(String column) {
+        return getInt(column, 0);
+    }
+
+    /**
+     * Get a numeric result as an int without boxing.
+     *
+     * @param column
+     * @param ifNull Returned if the value was null or missing.
+     * @return
+     */
+    public int getInt(String column, int ifNull) {
+        return (int) getLong(column, ifNull);
+    }
+
+    /**
+     * Get a numeric result by its 1-based position in the select list as a double.
+     *
+     * @param column
+     * @return The value, or 0 if it was null.
+     */
+    public double getDouble(int column) {
+        return doubleAt(position(column), 0);
+    }
+
+    /**
+     * Get a numeric result as a double without boxing.
+     *
+     * @param column
+     * @return The value, or 0 if it was null or missing.
+     */
+    public double getDouble(String column) {
+        return getDouble(column, 0);
+    }
+
+    /**
+     * Get a numeric result as a double without boxing.
+     *
+     * @param column
+     * @param ifNull Returned if the value was null or missing.
+     * @return
+     */
+    public double getDouble(String column, double ifNull) {
+        int index = schema.indexOf(column);
+        return index >= 0 ? doubleAt(index, ifNull) : toDouble(extra(column), ifNull);
+    }
+
+    /**
+     * Get a boolean or numeric result by its 1-based position in the select list, non zero being true.
+     *
+     * @param column
+     * @return The value, or false if it was null.
+     */
+    public boolean getBoolean(int column) {
+        return booleanAt(position(column), false);
+    }
+
+    /**
+     * Get a boolean or numeric result without boxing, non zero being true.
+     *
+     * @param column
+     * @return The value, or false if it was null or missing.
+     */
+    public boolean getBoolean(String column) {
+        return getBoolean(column, false);
+    }
+
+    /**
+     * Get a boolean or numeric result without boxing, non zero being true.
+     *
+     * @param column
+     * @param ifNull Returned if the value was null or missing.
+     * @return
+     */
+    public boolean getBoolean(String column, boolean ifNull) {
+        int index = schema.indexOf(column);
+        return index >= 0 ? booleanAt(index, ifNull) : toBoolean(extra(column), ifNull);
+    }
+
+    private Object extra(String column) {
+        return extra != null ? extra.get(column) : null;
+    }
+
+    private Object valueAt(int index) {
+        Object value = values[index];
+        if (value == PRIMITIVE) {
+            return box(index);
+        }
+        return value != ABSENT ? value : null;
+    }
+
+    private boolean isFloating(int index) {
+        DbRowSchema.Kind kind = schema.getKind(index);
+        return kind == DbRowSchema.Kind.DOUBLE || kind == DbRowSchema.Kind.FLOAT;
+    }
+
+    private Object box(int index) {
+        long bits = primitives[schema.getSlot(index)];
+        switch (schema.getKind(index)) {
+            case LONG:
+                return bits;
+            case INT:
+                return (int) bits;
+            case SHORT:
+                return (short) bits;
+            case BYTE:
+                return (byte) bits;
+            case BOOLEAN:
+                return bits != 0;
+            case DOUBLE:
+                return Double.longBitsToDouble(bits);
+            case FLOAT:
+                return (float) Double.longBitsToDouble(bits);
+            default:
+                throw new IllegalStateException("Column " + schema.getColumn(index) + " is not primitive");
+        }
+    }
+
+    private long longAt(int index, long ifNull) {
+        if (values[index] != PRIMITIVE) {
+            return toLong(valueAt(index), ifNull);
+        }
+        long bits = primitives[schema.getSlot(index)];
+        return isFloating(index) ? (long) Double.longBitsToDouble(bits) : bits;
+    }
+
+    private double doubleAt(int index, double ifNull) {
+        if (values[index] != PRIMITIVE) {
+            return toDouble(valueAt(index), ifNull);
+        }
+        long bits = primitives[schema.getSlot(index)];
+        return isFloating(index) ? Double.longBitsToDouble(bits) : (double) bits;
+    }
+
+    private boolean booleanAt(int index, boolean ifNull) {
+        if (values[index] != PRIMITIVE) {
+            return toBoolean(valueAt(index), ifNull);
+        }
+        long bits = primitives[schema.getSlot(index)];
+        return isFloating(index) ? Double.longBitsToDouble(bits) != 0 : bits != 0;
+    }
+
+    private static long toLong(Object value, long ifNull) {
+        if (value == null) {
+            return ifNull;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return ((Number) value).longValue();
+    }
+
+    private static double toDouble(Object value, double ifNull) {
+        if (value == null) {
+            return ifNull;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return ((Number) value).doubleValue();
+    }
+
+    private static boolean toBoolean(Object value, boolean ifNull) {
+        if (value == null) {
+            return ifNull;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        return ((Number) value).doubleValue() != 0;
+    }
+
+    private int position(int column) {
+        if (column < 1 || column > values.length) {
+            throw new IndexOutOfBoundsException("Column " + column + " of " + values.length);
+        }
+        return column - 1;
+    }
+
+    @Override
+    public Object get(Object column) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            return valueAt(index);
+        }
+        return extra != null ? extra.get(column) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object column) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            return values[index] != ABSENT;
+        }
+        return extra != null && extra.containsKey(column);
+    }
+
+    @Override
+    public Object put(String column, Object value) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            boolean wasAbsent = values[index] == ABSENT;
+            Object previous = valueAt(index);
+            values[index] = value;
+            if (wasAbsent) {
+                removed--;
+            }
+            return previous;
+        }
+        if (extra == null) {
+            extra = new HashMap<>();
+        }
+        return extra.put(column, value);
+    }
+
+    @Override
+    public Object remove(Object column) {
+        int index = schema.indexOf(column);
+        if (index >= 0) {
+            if (values[index] == ABSENT) {
+                return null;
+            }
+            Object previous = valueAt(index);
+            values[index] = ABSENT;
+            removed++;
+            return previous;
+        }
+        return extra != null ? extra.remove(column) : null;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < values.length; i++) {
+            if (schema.isVisible(i) && values[i] != ABSENT) {
+                values[i] = ABSENT;
+            }
+        }
+        removed = schema.visibleCount();
+        extra = null;
+    }
+
+    @Override
+    public int size() {
+        return schema.visibleCount() - removed + (extra != null ? extra.size() : 0);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
     public DbRow clone() {
-        DbRow row = new DbRow();
-        row.putAll(this);
+        DbRow row = new DbRow(schema, values.clone(), primitives.clone());
+        row.removed = removed;
+        if (extra != null) {
+            row.extra = new HashMap<>(extra);
+        }
         return row;
     }
+
+    private class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return DbRow.this.size();
+        }
+
+        @Override
+        public void clear() {
+            DbRow.this.clear();
+        }
+    }
+
+    private class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int next = -1;
+        private int current = -1;
+        private Iterator<Entry<String, Object>> extraIterator;
+
+        private EntryIterator() {
+            advance();
+        }
+
+        private void advance() {
+            do {
+                next++;
+            } while (next < values.length && (!schema.isVisible(next) || values[next] == ABSENT));
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < values.length) {
+                return true;
+            }
+            if (extraIterator == null && extra != null) {
+                extraIterator = extra.entrySet().iterator();
+            }
+            return extraIterator != null && extraIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < values.length) {
+                current = next;
+                advance();
+                return new ColumnEntry(current);
+            }
+            current = -1;
+            return extraIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (current >= 0) {
+                if (values[current] == ABSENT) {
+                    throw new IllegalStateException();
+                }
+                values[current] = ABSENT;
+                removed++;
+            } else if (extraIterator != null) {
+                extraIterator.remove();
+            } else {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class ColumnEntry implements Map.Entry<String, Object> {
+        private final int index;
+
+        private ColumnEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return schema.getColumn(index);
+        }
+
+        @Override
+        public Object getValue() {
+            return valueAt(index);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            Object previous = getValue();
+            values[index] = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+            Object value = getValue();
+            return getKey().equals(other.getKey()) && (value == null ? other.getValue() == null : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+    }
+
+    private enum Marker {
+        ABSENT, PRIMITIVE
+    }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.io.Serializable;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable column layout shared by every {@link DbRow} of a result set, mapping column labels to positions.
+ * <p/>
+ * When several columns share a label, the label resolves to the first of them, as it does with
+ * {@link java.sql.ResultSet#findColumn(String)}.
+ * <p/>
+ * Columns the driver reports as a boxed primitive class are stored unboxed; each of them gets a slot in
+ * the row's primitive array.
+ */
+final class DbRowSchema implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final DbRowSchema EMPTY = new DbRowSchema(new String[0]);
+
+    private final String[] columns;
+    private final Kind[] kinds;
+    private final int[] slots;
+    private final int primitiveCount;
+    private final Map<String, Integer> indexes;
+    private final boolean[] visible;
+    private final int visibleCount;
+
+    DbRowSchema(String[] columns) {
+        this(columns, new Kind[columns.length]);
+    }
+
+    DbRowSchema(String[] columns, Kind[] kinds) {
+        this.columns = columns;
+        this.kinds = kinds;
+        this.slots = new int[columns.length];
+        int primitives = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (kinds[i] == null) {
+                kinds[i] = Kind.OBJECT;
+            }
+            slots[i] = kinds[i] != Kind.OBJECT ? primitives++ : -1;
+        }
+        this.primitiveCount = primitives;
+        this.indexes = new HashMap<>(columns.length * 2);
+        for (int i = 0; i < columns.length; i++) {
+            indexes.putIfAbsent(columns[i], i);
+        }
+        this.visible = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            visible[i] = indexes.get(columns[i]) == i;
+        }
+        this.visibleCount = indexes.size();
+    }
+
+    /**
+     * Compares against result metadata in place, so a re-executed query allocates nothing to reuse its schema.
+     *
+     * @param metaData
+     * @return true if this schema has exactly these columns in this order, so it can be reused
+     * @throws SQLException
+     */
+    boolean matches(ResultSetMetaData metaData) throws SQLException {
+        if (metaData.getColumnCount() != columns.length) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!columns[i].equals(metaData.getColumnLabel(i + 1)) || kinds[i] != Kind.of(metaData.getColumnClassName(i + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return columns.length;
+    }
+
+    /**
+     * Number of distinct labels, which is what a row exposes as map entries.
+     *
+     * @return
+     */
+    int visibleCount() {
+        return visibleCount;
+    }
+
+    String getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * @param index
+     * @return false if an earlier column shares this column's label and hides it
+     */
+    boolean isVisible(int index) {
+        return visible[index];
+    }
+
+    Kind getKind(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @param index
+     * @return The position of the column in the row's primitive array, or -1 if it is stored as an object
+     */
+    int getSlot(int index) {
+        return slots[index];
+    }
+
+    int primitiveCount() {
+        return primitiveCount;
+    }
+
+    /**
+     * @param column
+     * @return The position of the column, or -1 if there is no such column
+     */
+    int indexOf(Object column) {
+        Integer index = indexes.get(column);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * How a column is read and stored. Every kind but OBJECT is kept in a long, doubles by their bits.
+     */
+    enum Kind {
+        OBJECT, LONG, INT, SHORT, BYTE, BOOLEAN, DOUBLE, FLOAT;
+
+        /**
+         * @param className As reported by {@link java.sql.ResultSetMetaData#getColumnClassName(int)}
+         * @return The kind that reads the column as the same type getObject would return
+         */
+        static Kind of(String className) {
+            if (className == null) {
+                return OBJECT;
+            }
+            switch (className) {
+                case "java.lang.Long":
+                    return LONG;
+                case "java.lang.Integer":
+                    return INT;
+                case "java.lang.Short":
+                    return SHORT;
+                case "java.lang.Byte":
+                    return BYTE;
+                case "java.lang.Boolean":
+                    return BOOLEAN;
+                case "java.lang.Double":
+                    return DOUBLE;
+                case "java.lang.Float":
+                    return FLOAT;
+                default:
+                    return OBJECT;
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A result whose first rows are held on the heap and the rest in a temporary memory-mapped file,
+ * decoded one row at a time as they are read. Built by {@link DbResultBudget} once a result exceeds its
+ * memory budget, and read only.
+ * <p/>
+ * Spilled rows are encoded with the same binary value codec as the async queue journal. The file is
+ * deleted as soon as it is mapped where the platform allows, and the mapping is released once this
+ * list is garbage collected.
+ */
+final class DbSpilledResultList extends AbstractList<DbRow> implements RandomAccess {
+    /**
+     * Largest mapping of the file, rows never straddle two of them.
+     */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final DbRowSchema schema;
+    private final List<DbRow> heapRows;
+    private final Spill spill;
+    private OutputStream out;
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private long written = 0;
+    /**
+     * While spilling, the file offset of each row. Once mapped, the segment in the high 32 bits and
+     * offset within the segment in the low 32 bits.
+     */
+    private long[] rows = new long[64];
+    private int spilledRows = 0;
+
+    DbSpilledResultList(DbRowSchema schema, List<DbRow> heapRows) throws SQLException {
+        this.schema = schema;
+        this.heapRows = heapRows;
+        try {
+            File file = File.createTempFile("db-result", ".spill", DbResultBudget.getSpillDirectory());
+            this.spill = new Spill(file);
+            this.out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        } catch (IOException e) {
+            throw new SQLException("Could not create spill file for result over its memory budget", e);
+        }
+    }
+
+    Spill getSpill() {
+        return spill;
+    }
+
+    /**
+     * Appends a row to the spill file.
+     *
+     * @param row
+     * @throws SQLException
+     */
+    void spill(DbRow row) throws SQLException {
+        if (spilledRows == rows.length) {
+            rows = Arrays.copyOf(rows, spilledRows * 2);
+        }
+        rows[spilledRows++] = written;
+        scratch.reset();
+        try {
+            for (int i = 0; i < schema.size(); i++) {
+                Object value = row.getObject(i + 1);
+                if (!AsyncDbSpool.canEncode(value)) {
+                    throw new SQLException("Result is over its memory budget and can not spill values of "
+                            + value.getClass().getName() + " in column " + schema.getColumn(i));
+                }
+                AsyncDbSpool.writeValue(scratchOut, value);
+            }
+            scratch.writeTo(out);
+        } catch (IOException e) {
+            throw new SQLException("Could not spill result over its memory budget", e);
+        }
+        written += scratch.size();
+    }
+
+    /**
+     * Closes the spill file and maps it for reading.
+     *
+     * @throws SQLException
+     */
+    void finish() throws SQLException {
+        try {
+            out.close();
+            out = null;
+            rows = Arrays.copyOf(rows, spilledRows);
+            List<ByteBuffer> segments = new ArrayList<>();
+            try (RandomAccessFile raf = new RandomAccessFile(spill.file, "r"); FileChannel channel = raf.getChannel()) {
+                int row = 0;
+                while (row < spilledRows) {
+                    long start = rows[row];
+                    int first = row;
+                    while (row < spilledRows && end(row) - start <= SEGMENT_SIZE) {
+                        row++;
+                    }
+                    if (row == first) {
+                        throw new SQLException("Row too large to spill: " + (end(row) - start) + " bytes");
+                    }
+                    long length = (row < spilledRows ? rows[row] : written) - start;
+                    segments.add(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+                    for (int i = first; i < row; i++) {
+                        rows[i] = ((long) (segments.size() - 1) << 32) | (rows[i] - start);
+                    }
+                }
+            }
+            spill.segments = segments.toArray(new ByteBuffer[0]);
+            spill.deleteFile();
+        } catch (IOException e) {
+            discard();
+            throw new SQLException("Could not spill result over its memory budget", e);
+        } catch (SQLException e) {
+            discard();
+            throw e;
+        }
+    }
+
+    private long end(int row) {
+        return row + 1 < spilledRows ? rows[row + 1] : written;
+    }
+
+    /**
+     * Abandons a result that failed to be read.
+     */
+    void discard() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+        spill.release();
+    }
+
+    @Override
+    public DbRow get(int index) {
+        if (index < heapRows.size()) {
+            return heapRows.get(index);
+        }
+        int row = index - heapRows.size();
+        if (row >= spilledRows) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        ByteBuffer segment = spill.segments[(int) (rows[row] >>> 32)].duplicate();
+        int offset = (int) rows[row];
+        int end = row + 1 < spilledRows && (rows[row + 1] >>> 32) == (rows[row] >>> 32) ? (int) rows[row + 1] : segment.limit();
+        byte[] bytes = new byte[end - offset];
+        segment.position(offset);
+        segment.get(bytes);
+        Object[] values = new Object[schema.size()];
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = AsyncDbSpool.readValue(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt spilled row", e);
+        }
+        return new DbRow(schema, values);
+    }
+
+    @Override
+    public int size() {
+        return heapRows.size() + spilledRows;
+    }
+
+    /**
+     * The spill file and its mappings, kept apart from the list so they can be released after it is collected.
+     */
+    static final class Spill {
+        private final File file;
+        private volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+        Spill(File file) {
+            this.file = file;
+        }
+
+        private void deleteFile() {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+
+        void release() {
+            for (ByteBuffer segment : segments) {
+                DbBuffers.release(segment);
+            }
+            segments = new ByteBuffer[0];
+            file.delete();
+        }
+    }
+}
@@ -25,8 +25,17 @@ package co.aikar.db;
 
 import org.intellij.lang.annotations.Language;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Manages a connection to the database pool and lets you work with an active
@@ -48,8 +57,13 @@ import java.util.ArrayList;
 public class DbStatement implements AutoCloseable {
     private Connection dbConn;
     private PreparedStatement preparedStatement;
+    private String preparedQuery;
+    private DbStatementKind preparedKind;
+    private DbBindPlan bindPlan;
+    private DbNamedQuery namedQuery;
     private ResultSet resultSet;
     private String[] resultCols;
+    private DbRowSchema resultSchema;
     public String query = "";
     // Has changes been made to a transaction w/o commit/rollback on close
     private volatile boolean isDirty = false;
@@ -93,6 +107,21 @@ public class DbStatement implements AutoCloseable {
         }
     }
 
+    /**
+     * Commits a pending transaction on this connection, leaving it pending so it can
+     * still be rolled back if the commit fails.
+     *
+     * @throws SQLException
+     */
+    void commitOrThrow() throws SQLException {
+        if (!isDirty) {
+            return;
+        }
+        dbConn.commit();
+        isDirty = false;
+        dbConn.setAutoCommit(true);
+    }
+
     /**
      * Rollsback a pending transaction on this connection.
      */
@@ -111,85 +140,539 @@ public class DbStatement implements AutoCloseable {
 
     /**
      * Initiates a new prepared statement on this connection.
+     * <p/>
+     * How it is prepared follows from the SQL's first keyword: inserts can return generated keys,
+     * queries get forward-only, read-only results and anything else is prepared plainly.
+     * Use {@link #queryRead(String)}, {@link #queryWrite(String)} or {@link #queryInsert(String)} to choose.
+     *
+     * @param query
+     * @throws SQLException
+     */
+    public DbStatement query(@Language("MySQL") String query) throws SQLException {
+        return query(query, DbStatementKind.of(query));
+    }
+
+    /**
+     * Initiates a new prepared statement for a query, with a forward-only, read-only result.
+     *
+     * @param query
+     * @return
+     * @throws SQLException
+     */
+    public DbStatement queryRead(@Language("MySQL") String query) throws SQLException {
+        return query(query, DbStatementKind.READ);
+    }
+
+    /**
+     * Initiates a new prepared statement for an update that does not need generated keys.
      *
      * @param query
+     * @return
+     * @throws SQLException
+     */
+    public DbStatement queryWrite(@Language("MySQL") String query) throws SQLException {
+        return query(query, DbStatementKind.WRITE);
+    }
+
+    /**
+     * Initiates a new prepared statement whose generated keys can be read with {@link #getLastInsertId()}.
+     *
+     * @param query
+     * @return
+     * @throws SQLException
+     */
+    public DbStatement queryInsert(@Language("MySQL") String query) throws SQLException {
+        return query(query, DbStatementKind.INSERT);
+    }
+
+    /**
+     * Initiates a new prepared statement from SQL with named parameters, such as {@code :uuid}, bound with
+     * {@link #bindNamed(Map)} or {@link #bindNamed(Object)}. Templates are parsed once and cached.
+     * <p/>
+     * Quoted strings, comments, {@code ::} and {@code :=} are left alone. A template can not also use ? parameters.
+     *
+     * @param template
+     * @return
+     * @throws SQLException
+     */
+    public DbStatement queryNamed(@Language("MySQL") String template) throws SQLException {
+        DbNamedQuery named;
+        try {
+            named = DbNamedQuery.of(template);
+        } catch (IllegalArgumentException e) {
+            close(e);
+            throw e;
+        }
+        query(named.getSql());
+        namedQuery = named;
+        return this;
+    }
+
+    private DbStatement query(String query, DbStatementKind kind) throws SQLException {
+        this.query = query;
+        this.namedQuery = null;
+
+        try {
+            prepare(query, kind);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * Prepares a forward-only, read-only query whose result is fetched from the server as it is read
+     * instead of all at once, for use with {@link #stream()}.
+     * <p/>
+     * With MySQL, pass Integer.MIN_VALUE to fetch rows one at a time. Until a streamed result is fully
+     * read or closed, no other statement can run on the connection.
+     *
+     * @param query
+     * @param fetchSize
+     * @return
+     * @throws SQLException
+     */
+    public DbStatement queryCursor(@Language("MySQL") String query, int fetchSize) throws SQLException {
+        this.query = query;
+        this.namedQuery = null;
+
+        try {
+            prepare(query, DbStatementKind.CURSOR);
+            preparedStatement.setFetchSize(fetchSize);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+
+        return this;
+    }
+
+    /**
+     * Replaces the current statement with one for the query, keeping it when it is the same query
+     * and otherwise reusing a statement cached on the connection when there is one.
+     *
+     * @param query
+     * @param kind
+     * @throws SQLException
+     */
+    private void prepare(String query, DbStatementKind kind) throws SQLException {
+        if (preparedStatement != null && kind == preparedKind && query.equals(preparedQuery)) {
+            closeResult();
+            preparedStatement.clearParameters();
+            preparedStatement.clearBatch();
+            return;
+        }
+        closeStatement();
+        preparedStatement = DbStatementCache.checkout(dbConn, query, kind);
+        preparedQuery = query;
+        preparedKind = kind;
+        bindPlan = null;
+    }
+
+    /**
+     * Utility method used by execute calls to set the statements parameters to execute on.
+     * Parameters are bound with the typed setters of the query's {@link DbBindPlan}.
+     *
+     * @param params Array of Objects to use for each parameter.
+     */
+    private void prepareExecute(Object... params) throws SQLException {
+        prepareExecute();
+        if (params.length > 0) {
+            bindAll(params);
+        }
+    }
+
+    private void bindAll(Object[] params) throws SQLException {
+        bindPlan = DbBindPlan.of(preparedQuery, bindPlan, params);
+        bindPlan.bind(preparedStatement, params);
+    }
+
+    /**
+     * Utility method used by execute calls to run with the parameters already bound.
+     */
+    private void prepareExecute() throws SQLException {
+        closeResult();
+        if (preparedStatement == null) {
+            throw new IllegalStateException("Run Query first on statement before executing!");
+        }
+    }
+
+    /**
+     * The current statement, for binding parameters.
+     */
+    private PreparedStatement bindTarget() {
+        if (preparedStatement == null) {
+            throw new IllegalStateException("Run Query first on statement before binding!");
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Binds the named parameters of a {@link #queryNamed(String)} query from a map of names to values,
+     * to run with {@link #execute()}, {@link #executeUpdate()} or {@link #addBatch()}.
+     *
+     * @param params
+     * @return
+     * @throws SQLException
+     * @throws IllegalArgumentException if a parameter has no value in the map
+     */
+    public DbStatement bindNamed(Map<String, ?> params) throws SQLException {
+        return bindNamed((Object) params);
+    }
+
+    /**
+     * Binds the named parameters of a {@link #queryNamed(String)} query from the properties of a bean or record,
+     * read through getters, accessors or fields matched by name as with {@link RowMapper#of(Class)}.
+     *
+     * @param bean
+     * @return
+     * @throws SQLException
+     * @throws IllegalArgumentException if a parameter has no matching property, or the bean is null
+     */
+    public DbStatement bindNamed(Object bean) throws SQLException {
+        if (namedQuery == null) {
+            throw new IllegalStateException("Run queryNamed first on statement before binding by name!");
+        }
+        try {
+            bindAll(namedQuery.values(bean));
+        } catch (SQLException | RuntimeException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Binds a parameter of the current query, to run with {@link #execute()}, {@link #executeUpdate()}
+     * or {@link #addBatch()}. Bound parameters are kept until the next query.
+     *
+     * @param index 1-based parameter index
+     * @param value
+     * @return
+     * @throws SQLException
+     */
+    public DbStatement bindLong(int index, long value) throws SQLException {
+        try {
+            bindTarget().setLong(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindInt(int index, int value) throws SQLException {
+        try {
+            bindTarget().setInt(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindDouble(int index, double value) throws SQLException {
+        try {
+            bindTarget().setDouble(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindBoolean(int index, boolean value) throws SQLException {
+        try {
+            bindTarget().setBoolean(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindString(int index, String value) throws SQLException {
+        try {
+            bindTarget().setString(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindBytes(int index, byte[] value) throws SQLException {
+        try {
+            bindTarget().setBytes(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindBigDecimal(int index, BigDecimal value) throws SQLException {
+        try {
+            bindTarget().setBigDecimal(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindTimestamp(int index, Timestamp value) throws SQLException {
+        try {
+            bindTarget().setTimestamp(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Binds SQL NULL to a parameter.
+     *
+     * @param index   1-based parameter index
+     * @param sqlType Type of the parameter from {@link Types}
+     * @return
+     * @throws SQLException
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindNull(int index, int sqlType) throws SQLException {
+        try {
+            bindTarget().setNull(index, sqlType);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Binds a parameter of any type the driver accepts with setObject.
+     *
+     * @see #bindLong(int, long)
+     */
+    public DbStatement bindObject(int index, Object value) throws SQLException {
+        try {
+            bindTarget().setObject(index, value);
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Execute an update query with the supplied parameters
+     *
+     * @param params
+     * @return
+     * @throws SQLException
+     */
+    public int executeUpdate(Object... params) throws SQLException {
+        try {
+            prepareExecute(params);
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Execute an update query with the parameters bound through the bind methods, such as {@link #bindLong(int, long)}.
+     *
+     * @return
+     * @throws SQLException
+     */
+    public int executeUpdate() throws SQLException {
+        try {
+            prepareExecute();
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Execute an update query with parameters bound from an object, such as an entity
+     * through its generated {@link DbEntityMapper}.
+     *
+     * @param binder
+     * @param value
+     * @return
+     * @throws SQLException
+     */
+    public <T> int executeUpdate(ParamBinder<? super T> binder, T value) throws SQLException {
+        try {
+            prepareExecute();
+            binder.bind(preparedStatement, value);
+            return preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Adds parameters bound from an object to the current batch of this statement.
+     *
+     * @param binder
+     * @param value
+     * @return
+     * @throws SQLException
+     */
+    public <T> DbStatement addBatch(ParamBinder<? super T> binder, T value) throws SQLException {
+        try {
+            prepareExecute();
+            binder.bind(preparedStatement, value);
+            preparedStatement.addBatch();
+            preparedStatement.clearParameters();
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Adds a set of parameters to the current batch of this statement.
+     *
+     * @param params
+     * @return
+     * @throws SQLException
+     */
+    public DbStatement addBatch(Object... params) throws SQLException {
+        try {
+            prepareExecute(params);
+            preparedStatement.addBatch();
+            preparedStatement.clearParameters();
+        } catch (SQLException e) {
+            close(e);
+            throw e;
+        }
+        return this;
+    }
+
+    /**
+     * Adds the parameters bound through the bind methods to the current batch of this statement.
+     *
+     * @return
      * @throws SQLException
      */
-    public DbStatement query(@Language("MySQL") String query) throws SQLException {
-        this.query = query;
-
-        closeStatement();
+    public DbStatement addBatch() throws SQLException {
         try {
-            preparedStatement = dbConn.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+            prepareExecute();
+            preparedStatement.addBatch();
+            preparedStatement.clearParameters();
         } catch (SQLException e) {
-            close();
+            close(e);
             throw e;
         }
-
         return this;
     }
 
     /**
-     * Utility method used by execute calls to set the statements parameters to execute on.
+     * Executes every set of parameters added with {@link #addBatch(Object...)} in as few round trips as the driver allows.
      *
-     * @param params Array of Objects to use for each parameter.
+     * @return Update counts for each set of parameters, in the order they were added
+     * @throws SQLException
      */
-    private void prepareExecute(Object... params) throws SQLException {
-        closeResult();
-        if (preparedStatement == null) {
-            throw new IllegalStateException("Run Query first on statement before executing!");
-        }
-
-        for (int i = 0; i < params.length; i++) {
-            preparedStatement.setObject(i + 1, params[i]);
+    public int[] executeBatch() throws SQLException {
+        try {
+            if (preparedStatement == null) {
+                throw new IllegalStateException("Run Query first on statement before executing!");
+            }
+            return preparedStatement.executeBatch();
+        } catch (SQLException e) {
+            close(e);
+            throw e;
         }
     }
 
     /**
-     * Execute an update query with the supplied parameters
+     * Executes the prepared statement with the supplied parameters.
      *
      * @param params
      * @return
      * @throws SQLException
      */
-    public int executeUpdate(Object... params) throws SQLException {
+    public DbStatement execute(Object... params) throws SQLException {
         try {
             prepareExecute(params);
-            return preparedStatement.executeUpdate();
+            executeQuery();
         } catch (SQLException e) {
-            close();
+            close(e);
             throw e;
         }
+        return this;
     }
 
     /**
-     * Executes the prepared statement with the supplied parameters.
+     * Executes the prepared statement with the parameters bound through the bind methods,
+     * such as {@link #bindLong(int, long)}.
      *
-     * @param params
      * @return
      * @throws SQLException
      */
-    public DbStatement execute(Object... params) throws SQLException {
+    public DbStatement execute() throws SQLException {
         try {
-            prepareExecute(params);
-            resultSet = preparedStatement.executeQuery();
-            ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
-            int numberOfColumns = resultSetMetaData.getColumnCount();
-
-            resultCols = new String[numberOfColumns];
-            // get the column names; column indexes start from 1
-            for (int i = 1; i < numberOfColumns + 1; i++) {
-                resultCols[i - 1] = resultSetMetaData.getColumnLabel(i);
-            }
+            prepareExecute();
+            executeQuery();
         } catch (SQLException e) {
-            close();
+            close(e);
             throw e;
         }
         return this;
     }
 
+    private void executeQuery() throws SQLException {
+        resultSet = preparedStatement.executeQuery();
+        ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
+        if (resultSchema != null && resultSchema.matches(resultSetMetaData)) {
+            return;
+        }
+
+        int numberOfColumns = resultSetMetaData.getColumnCount();
+        resultCols = new String[numberOfColumns];
+        DbRowSchema.Kind[] kinds = new DbRowSchema.Kind[numberOfColumns];
+        // get the column names; column indexes start from 1
+        for (int i = 1; i < numberOfColumns + 1; i++) {
+            resultCols[i - 1] = resultSetMetaData.getColumnLabel(i);
+            kinds[i - 1] = DbRowSchema.Kind.of(resultSetMetaData.getColumnClassName(i));
+        }
+        resultSchema = new DbRowSchema(resultCols, kinds);
+    }
+
     /**
-     * Gets the Id of last insert
+     * Gets the Id of last insert, for statements prepared as inserts.
      *
      * @return Long
      */
@@ -207,21 +690,19 @@ public class DbStatement implements AutoCloseable {
     }
 
     /**
-     * Gets all results as an array of DbRow
+     * Gets all results as a list of DbRow.
+     * <p/>
+     * Rows past {@link DbOptions#setResultMemoryBudget(long)} or {@link DbOptions#setGlobalResultMemoryBudget(long)}
+     * are spilled to a temporary file and read back as the list is accessed. Such lists are read only.
      *
      * @return
      * @throws SQLException
      */
-    public ArrayList<DbRow> getResults() throws SQLException {
+    public List<DbRow> getResults() throws SQLException {
         if (resultSet == null) {
             return null;
         }
-        ArrayList<DbRow> result = new ArrayList<>();
-        DbRow row;
-        while ((row = getNextRow()) != null) {
-            result.add(row);
-        }
-        return result;
+        return DbResultBudget.read(this, resultSchema);
     }
 
     /**
@@ -237,13 +718,429 @@ public class DbStatement implements AutoCloseable {
 
         ResultSet nextResultSet = getNextResultSet();
         if (nextResultSet != null) {
-            DbRow row = new DbRow();
-            for (String col : resultCols) {
-                row.put(col, nextResultSet.getObject(col));
+            return DbRow.read(resultSchema, nextResultSet);
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a column label of the current result to its 1-based index, using the layout
+     * cached when the statement was executed rather than a driver lookup.
+     *
+     * @param column
+     * @return
+     * @throws SQLException if the result has no such column
+     */
+    public int findColumn(String column) throws SQLException {
+        int index = resultSchema != null ? resultSchema.indexOf(column) : -1;
+        if (index < 0) {
+            throw new SQLException("Unknown column: " + column);
+        }
+        return index + 1;
+    }
+
+    /**
+     * Gets all results stored column by column, numeric columns in primitive arrays.
+     *
+     * @return
+     * @throws SQLException
+     */
+    public DbColumnarResult getColumnarResults() throws SQLException {
+        if (resultSet == null) {
+            return null;
+        }
+        DbColumnarResult result = new DbColumnarResult(resultSchema);
+        ResultSet nextResultSet;
+        while ((nextResultSet = getNextResultSet()) != null) {
+            result.add(nextResultSet);
+        }
+        result.trim();
+        return result;
+    }
+
+    /**
+     * Gets all results encoded into direct memory outside of the heap, for very large results.
+     * The returned result must be closed to free that memory.
+     *
+     * @return
+     * @throws SQLException
+     */
+    public DbOffHeapResult getOffHeapResults() throws SQLException {
+        if (resultSet == null) {
+            return null;
+        }
+        DbOffHeapResult result = new DbOffHeapResult(resultSchema);
+        try {
+            ResultSet nextResultSet;
+            while ((nextResultSet = getNextResultSet()) != null) {
+                result.add(nextResultSet);
+            }
+        } catch (SQLException | RuntimeException e) {
+            result.close();
+            throw e;
+        }
+        result.trim();
+        return result;
+    }
+
+    /**
+     * Gets all results mapped to objects of the given type by {@link RowMapper#of(Class)},
+     * with the binding plan cached for this query.
+     *
+     * @param type
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public <T> ArrayList<T> getResults(Class<T> type) throws SQLException {
+        if (resultSet == null) {
+            return null;
+        }
+        return getResults(RowMappers.forQuery(query, type, resultCols));
+    }
+
+    /**
+     * Gets all results mapped by the given mapper.
+     *
+     * @param mapper
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public <T> ArrayList<T> getResults(RowMapper<T> mapper) throws SQLException {
+        if (resultSet == null) {
+            return null;
+        }
+        ArrayList<T> result = new ArrayList<>();
+        ResultSet nextResultSet;
+        while ((nextResultSet = getNextResultSet()) != null) {
+            result.add(mapper.map(nextResultSet));
+        }
+        return result;
+    }
+
+    /**
+     * Gets the next row mapped to an object of the given type by {@link RowMapper#of(Class)}.
+     *
+     * @param type
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public <T> T getNextRow(Class<T> type) throws SQLException {
+        if (resultSet == null) {
+            return null;
+        }
+        return getNextRow(RowMappers.forQuery(query, type, resultCols));
+    }
+
+    /**
+     * Gets the next row mapped by the given mapper.
+     *
+     * @param mapper
+     * @param <T>
+     * @return
+     * @throws SQLException
+     */
+    public <T> T getNextRow(RowMapper<T> mapper) throws SQLException {
+        ResultSet nextResultSet = getNextResultSet();
+        return nextResultSet != null ? mapper.map(nextResultSet) : null;
+    }
+
+    /**
+     * Advances to the next row of the result, for reading it in place with the typed getters
+     * instead of materializing a DbRow. Do not mix with {@link #getNextRow()}.
+     *
+     * @return false when there are no more rows, after which the result is closed
+     * @throws SQLException
+     */
+    public boolean next() throws SQLException {
+        return getNextResultSet() != null;
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return The value of the current row, or 0 if it was null
+     * @throws SQLException
+     */
+    public long getLong(int column) throws SQLException {
+        return currentRow().getLong(column);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @param ifNull Returned if the value was null
+     * @return The value of the current row
+     * @throws SQLException
+     */
+    public long getLong(int column, long ifNull) throws SQLException {
+        long value = currentRow().getLong(column);
+        return resultSet.wasNull() ? ifNull : value;
+    }
+
+    public long getLong(String column) throws SQLException {
+        return getLong(findColumn(column));
+    }
+
+    public long getLong(String column, long ifNull) throws SQLException {
+        return getLong(findColumn(column), ifNull);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return The value of the current row, or 0 if it was null
+     * @throws SQLException
+     */
+    public int getInt(int column) throws SQLException {
+        return currentRow().getInt(column);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @param ifNull Returned if the value was null
+     * @return The value of the current row
+     * @throws SQLException
+     */
+    public int getInt(int column, int ifNull) throws SQLException {
+        int value = currentRow().getInt(column);
+        return resultSet.wasNull() ? ifNull : value;
+    }
+
+    public int getInt(String column) throws SQLException {
+        return getInt(findColumn(column));
+    }
+
+    public int getInt(String column, int ifNull) throws SQLException {
+        return getInt(findColumn(column), ifNull);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return The value of the current row, or 0 if it was null
+     * @throws SQLException
+     */
+    public double getDouble(int column) throws SQLException {
+        return currentRow().getDouble(column);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @param ifNull Returned if the value was null
+     * @return The value of the current row
+     * @throws SQLException
+     */
+    public double getDouble(int column, double ifNull) throws SQLException {
+        double value = currentRow().getDouble(column);
+        return resultSet.wasNull() ? ifNull : value;
+    }
+
+    public double getDouble(String column) throws SQLException {
+        return getDouble(findColumn(column));
+    }
+
+    public double getDouble(String column, double ifNull) throws SQLException {
+        return getDouble(findColumn(column), ifNull);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @return The value of the current row, or false if it was null
+     * @throws SQLException
+     */
+    public boolean getBoolean(int column) throws SQLException {
+        return currentRow().getBoolean(column);
+    }
+
+    /**
+     * @param column 1-based column index
+     * @param ifNull Returned if the value was null
+     * @return The value of the current row
+     * @throws SQLException
+     */
+    public boolean getBoolean(int column, boolean ifNull) throws SQLException {
+        boolean value = currentRow().getBoolean(column);
+        return resultSet.wasNull() ? ifNull : value;
+    }
+
+    public boolean getBoolean(String column) throws SQLException {
+        return getBoolean(findColumn(column));
+    }
+
+    public boolean getBoolean(String column, boolean ifNull) throws SQLException {
+        return getBoolean(findColumn(column), ifNull);
+    }
+
+    private ResultSet currentRow() throws SQLException {
+        if (resultSet == null) {
+            throw new SQLException("No current row");
+        }
+        return resultSet;
+    }
+
+    /**
+     * Streams the remaining rows of the result, reading each from the cursor only when the stream needs it.
+     * The result is closed once the stream is exhausted or closed. SQLExceptions are rethrown as
+     * {@link UncheckedSQLException}.
+     *
+     * @return
+     */
+    public Stream<DbRow> stream() {
+        return stream(false);
+    }
+
+    /**
+     * Streams the remaining rows of the result mapped to the given type by {@link RowMapper#of(Class)}.
+     *
+     * @param type
+     * @param <T>
+     * @return
+     * @see #stream()
+     */
+    public <T> Stream<T> stream(Class<T> type) {
+        return stream(type, false);
+    }
+
+    /**
+     * Streams the remaining rows of the result mapped by the given mapper, which must not return null.
+     *
+     * @param mapper
+     * @param <T>
+     * @return
+     * @see #stream()
+     */
+    public <T> Stream<T> stream(RowMapper<T> mapper) {
+        return stream(mapper, false);
+    }
+
+    Stream<DbRow> stream(boolean closeStatement) {
+        return stream(rowMapper(), closeStatement);
+    }
+
+    <T> Stream<T> stream(Class<T> type, boolean closeStatement) {
+        return stream(rowMapper(type), closeStatement);
+    }
+
+    /**
+     * Publishes the remaining rows of the result, reading them from the cursor on the DB executor only
+     * as fast as the subscriber requests them. Only one subscriber is allowed. This statement is closed
+     * once the result is fully delivered, fails, or the subscription is cancelled.
+     *
+     * @return
+     */
+    public DbFlow.Publisher<DbRow> publish() {
+        return new RowPublisher<>(() -> this, DbStatement::rowMapper, false);
+    }
+
+    /**
+     * Publishes the remaining rows of the result mapped to the given type by {@link RowMapper#of(Class)}.
+     *
+     * @param type
+     * @param <T>
+     * @return
+     * @see #publish()
+     */
+    public <T> DbFlow.Publisher<T> publish(Class<T> type) {
+        return new RowPublisher<>(() -> this, statement -> statement.rowMapper(type), false);
+    }
+
+    /**
+     * Publishes the remaining rows of the result mapped by the given mapper, which must not return null.
+     *
+     * @param mapper
+     * @param <T>
+     * @return
+     * @see #publish()
+     */
+    public <T> DbFlow.Publisher<T> publish(RowMapper<T> mapper) {
+        return new RowPublisher<>(() -> this, statement -> mapper, false);
+    }
+
+    /**
+     * @return Mapper building DbRows for the current result
+     */
+    RowMapper<DbRow> rowMapper() {
+        DbRowSchema schema = resultSchema;
+        return resultSet -> DbRow.read(schema, resultSet);
+    }
+
+    /**
+     * @return Mapper for the current result to the given type, or null if there is no result
+     */
+    <T> RowMapper<T> rowMapper(Class<T> type) {
+        return resultSet != null ? RowMappers.forQuery(query, type, resultCols) : null;
+    }
+
+    /**
+     * @param closeStatement Whether to close the whole statement, returning its connection to the pool,
+     *                       rather than just the result when the stream finishes
+     */
+    <T> Stream<T> stream(RowMapper<T> mapper, boolean closeStatement) {
+        RowIterator<T> iterator = new RowIterator<>(mapper, closeStatement);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::finish);
+    }
+
+    /**
+     * Reads rows from the cursor one at a time as they are asked for.
+     */
+    private final class RowIterator<T> implements Iterator<T> {
+        private final RowMapper<T> mapper;
+        private final boolean closeStatement;
+        private T next;
+        private boolean finished;
+
+        private RowIterator(RowMapper<T> mapper, boolean closeStatement) {
+            this.mapper = mapper;
+            this.closeStatement = closeStatement;
+            if (resultSet == null) {
+                finish();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished) {
+                try {
+                    ResultSet nextResultSet = getNextResultSet();
+                    if (nextResultSet != null) {
+                        next = mapper.map(nextResultSet);
+                    }
+                } catch (SQLException e) {
+                    finish();
+                    throw new UncheckedSQLException(e);
+                }
+                if (next == null) {
+                    finish();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
+            T row = next;
+            next = null;
             return row;
         }
-        return null;
+
+        private void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (closeStatement) {
+                close();
+                return;
+            }
+            try {
+                closeResult();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     public <T> T getFirstColumn() throws SQLException {
@@ -279,9 +1176,23 @@ public class DbStatement implements AutoCloseable {
     private void closeStatement() throws SQLException {
         closeResult();
         if (preparedStatement != null) {
-            preparedStatement.close();
+            PreparedStatement statement = preparedStatement;
             preparedStatement = null;
+            DbStatementCache.release(dbConn, preparedQuery, preparedKind, statement);
+        }
+    }
+
+    /**
+     * Closes this statement after a failure. Statements run on the pool's underlying connection, so the pool
+     * never sees their errors; if the failure shows the connection is broken, it is evicted here instead.
+     *
+     * @param cause
+     */
+    private void close(Exception cause) {
+        if (dbConn != null && cause instanceof SQLException && DbStatementCache.isBroken((SQLException) cause)) {
+            DbStatementCache.evict(dbConn);
         }
+        close();
     }
 
     /**
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps prepared statements open per connection after a {@link DbStatement} is done with them, so running
+ * the same SQL again on that connection, in the same DbStatement or a later one, skips the prepare.
+ * <p/>
+ * Statements are prepared on the pool's underlying connection rather than its wrapper, as the pool closes
+ * every statement of the wrapper when it is returned. Each connection keeps its most recently used
+ * statements, up to {@link DbOptions#setStatementCacheSize(int)}, and closes the least recently used
+ * beyond that. A statement is checked out while in use, so it is never shared.
+ * <p/>
+ * As the pool can not see errors from these statements, a {@link DbStatement} failing with an error that
+ * shows its connection is broken evicts the connection itself, dropping its cached statements.
+ */
+final class DbStatementCache {
+    private static volatile int capacity = 64;
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final Map<Connection, Statements> caches = new ConcurrentHashMap<>();
+    private static final Set<String> BROKEN_STATES = new HashSet<>(Arrays.asList("57P01", "57P02", "57P03", "01002", "JZ0C0", "JZ0C1"));
+
+    private DbStatementCache() {}
+
+    static void start(DbOptions options) {
+        capacity = options.getStatementCacheSize();
+    }
+
+    static long getHits() {
+        return hits.get();
+    }
+
+    static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Takes a cached statement for the SQL from the connection, or prepares a new one.
+     *
+     * @param connection
+     * @param query
+     * @param kind
+     * @return
+     * @throws SQLException
+     */
+    static PreparedStatement checkout(Connection connection, String query, DbStatementKind kind) throws SQLException {
+        if (capacity <= 0) {
+            return kind.prepare(connection, query);
+        }
+        Connection raw = unwrap(connection);
+        Statements statements = caches.get(raw);
+        if (statements == null) {
+            purge();
+            statements = caches.computeIfAbsent(raw, k -> new Statements());
+        }
+        PreparedStatement statement = statements.take(new Key(query, kind));
+        if (statement != null) {
+            hits.incrementAndGet();
+            return statement;
+        }
+        misses.incrementAndGet();
+        return kind.prepare(raw, query);
+    }
+
+    /**
+     * Returns a statement from {@link #checkout(Connection, String, DbStatementKind)} to the connection's cache,
+     * clearing its parameters and batch.
+     *
+     * @param connection
+     * @param query
+     * @param kind
+     * @param statement
+     * @throws SQLException
+     */
+    static void release(Connection connection, String query, DbStatementKind kind, PreparedStatement statement) throws SQLException {
+        Statements statements = capacity > 0 ? caches.get(unwrap(connection)) : null;
+        if (statements == null || statement.isClosed()) {
+            statement.close();
+            return;
+        }
+        try {
+            statement.clearParameters();
+            statement.clearBatch();
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        statements.offer(new Key(query, kind), statement);
+    }
+
+    /**
+     * Evicts a connection whose statement failed because it is broken, and drops its cached statements.
+     *
+     * @param connection
+     */
+    static void evict(Connection connection) {
+        try {
+            caches.remove(unwrap(connection));
+        } catch (SQLException ignored) {}
+        DB.evictConnection(connection);
+    }
+
+    /**
+     * Whether an error means the connection it came from can no longer be used, using the same SQL states
+     * as the pool.
+     *
+     * @param e
+     * @return
+     */
+    static boolean isBroken(SQLException e) {
+        if (e instanceof SQLRecoverableException) {
+            return true;
+        }
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("08") || BROKEN_STATES.contains(state));
+    }
+
+    private static Connection unwrap(Connection connection) throws SQLException {
+        try {
+            Connection raw = connection.unwrap(Connection.class);
+            return raw != null ? raw : connection;
+        } catch (SQLException e) {
+            return connection;
+        }
+    }
+
+    /**
+     * Drops the caches of connections the pool has closed, whose statements closed with them.
+     */
+    private static void purge() {
+        Iterator<Connection> iterator = caches.keySet().iterator();
+        while (iterator.hasNext()) {
+            try {
+                if (iterator.next().isClosed()) {
+                    iterator.remove();
+                }
+            } catch (SQLException e) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Idle statements of a single connection in least recently used order.
+     */
+    private static final class Statements extends LinkedHashMap<Key, PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+
+        Statements() {
+            super(16, 0.75f, true);
+        }
+
+        synchronized PreparedStatement take(Key key) throws SQLException {
+            PreparedStatement statement = remove(key);
+            if (statement != null && statement.isClosed()) {
+                return null;
+            }
+            return statement;
+        }
+
+        synchronized void offer(Key key, PreparedStatement statement) throws SQLException {
+            PreparedStatement previous = super.put(key, statement);
+            if (previous != null && previous != statement) {
+                previous.close();
+            }
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+            try {
+                eldest.getValue().close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            return true;
+        }
+    }
+
+    private static final class Key {
+        private final String query;
+        private final DbStatementKind kind;
+
+        Key(String query, DbStatementKind kind) {
+            this.query = query;
+            this.kind = kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return kind == key.kind && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, kind);
+        }
+    }
+}
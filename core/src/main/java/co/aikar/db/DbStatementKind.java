@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How a {@link DbStatement} prepares its SQL, so each statement only asks the driver for what it needs.
+ * Part of the key statements are cached under, as the same SQL prepared differently is a different statement.
+ */
+enum DbStatementKind {
+    /**
+     * Queries, prepared forward-only and read-only, the cheapest result the driver offers.
+     */
+    READ {
+        @Override
+        PreparedStatement prepare(Connection connection, String query) throws SQLException {
+            return connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+    },
+    /**
+     * Updates and other statements without generated keys.
+     */
+    WRITE {
+        @Override
+        PreparedStatement prepare(Connection connection, String query) throws SQLException {
+            return connection.prepareStatement(query);
+        }
+    },
+    /**
+     * Inserts, able to return generated keys.
+     */
+    INSERT {
+        @Override
+        PreparedStatement prepare(Connection connection, String query) throws SQLException {
+            return connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+        }
+    },
+    /**
+     * Forward-only, read-only query fetching its result as it is read.
+     */
+    CURSOR {
+        @Override
+        PreparedStatement prepare(Connection connection, String query) throws SQLException {
+            return connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+    };
+
+    private static final int MAX_CACHED = 1024;
+    private static final Map<String, DbStatementKind> classified = new ConcurrentHashMap<>();
+
+    abstract PreparedStatement prepare(Connection connection, String query) throws SQLException;
+
+    /**
+     * Classifies SQL by its first keyword, after any comments and opening parentheses.
+     * INSERT and REPLACE are inserts, SELECT, WITH, SHOW, DESCRIBE, EXPLAIN, TABLE and VALUES are reads,
+     * anything else is a write.
+     *
+     * @param query
+     * @return
+     */
+    static DbStatementKind of(String query) {
+        DbStatementKind kind = classified.get(query);
+        if (kind == null) {
+            kind = classify(query);
+            if (classified.size() < MAX_CACHED) {
+                classified.put(query, kind);
+            }
+        }
+        return kind;
+    }
+
+    private static DbStatementKind classify(String query) {
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c) || c == '(') {
+                i++;
+            } else if (c == '#' || c == '-' && query.startsWith("--", i)) {
+                int end = query.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            } else if (c == '/' && query.startsWith("/*", i)) {
+                int end = query.indexOf("*/", i + 2);
+                i = end < 0 ? length : end + 2;
+            } else {
+                break;
+            }
+        }
+        int start = i;
+        while (i < length && Character.isLetter(query.charAt(i))) {
+            i++;
+        }
+        switch (query.substring(start, i).toUpperCase(Locale.ROOT)) {
+            case "INSERT":
+            case "REPLACE":
+                return INSERT;
+            case "SELECT":
+            case "WITH":
+            case "SHOW":
+            case "DESCRIBE":
+            case "DESC":
+            case "EXPLAIN":
+            case "TABLE":
+            case "VALUES":
+                return READ;
+            default:
+                return WRITE;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the current row of a result set straight into an object, without building a {@link DbRow} first.
+ * <p/>
+ * Use {@link #of(Class)} for a mapper that binds columns to a class by name, or supply your own lambda.
+ *
+ * @param <T>
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+    /**
+     * @param resultSet Positioned on the row to map. Do not advance it.
+     * @return
+     * @throws SQLException
+     */
+    T map(ResultSet resultSet) throws SQLException;
+
+    /**
+     * Gets a mapper binding columns, by label, to the class. Records are built through their canonical
+     * constructor, classes with a no-arg constructor through setters or fields, and other classes
+     * through a constructor whose parameters match the columns.
+     * <p/>
+     * Column labels match properties ignoring case and underscores, so player_name binds to playerName.
+     * The binding plan is resolved on first use against the result's columns and cached per query.
+     *
+     * @param type
+     * @param <T>
+     * @return
+     */
+    static <T> RowMapper<T> of(Class<T> type) {
+        return RowMappers.forClass(type);
+    }
+}
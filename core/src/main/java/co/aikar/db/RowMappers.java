@@ -0,0 +1,785 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Builds and caches the column binding plans behind {@link RowMapper#of(Class)}.
+ * <p/>
+ * What a class can bind to is resolved once per class; which column feeds which property is resolved
+ * once per (query, class) against the result's columns. Constructors and setters are turned into
+ * lambdas through LambdaMetafactory where the class is visible to this library, and into method
+ * handle calls otherwise, so mapping a row involves no reflection.
+ * <p/>
+ * Classes with a mapper generated by db-processor use that mapper instead.
+ */
+final class RowMappers {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final Method IS_RECORD = method(Class.class, "isRecord");
+    private static final Method GET_RECORD_COMPONENTS = method(Class.class, "getRecordComponents");
+
+    private static final Map<Class<?>, ClassModel> models = new ConcurrentHashMap<>();
+    private static final int MAX_CACHED = 1024;
+    private static final Map<PlanKey, Plan<?>> plans = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, RowMapper<?>> mappers = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, Object> generated = new ConcurrentHashMap<>();
+    private static final Object NOT_GENERATED = new Object();
+    private static final Map<Class<?>, Map<String, MethodHandle>> getters = new ConcurrentHashMap<>();
+
+    private RowMappers() {}
+
+    @SuppressWarnings("unchecked")
+    static <T> RowMapper<T> forClass(Class<T> type) {
+        DbEntityMapper<T> entityMapper = generated(type);
+        if (entityMapper != null) {
+            return entityMapper;
+        }
+        return (RowMapper<T>) mappers.computeIfAbsent(type, ClassMapper::new);
+    }
+
+    /**
+     * @param type
+     * @return The mapper db-processor generated for the type, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    static <T> DbEntityMapper<T> generated(Class<T> type) {
+        Object mapper = generated.computeIfAbsent(type, RowMappers::loadGenerated);
+        return mapper != NOT_GENERATED ? (DbEntityMapper<T>) mapper : null;
+    }
+
+    private static Object loadGenerated(Class<?> type) {
+        String name = type.getName();
+        String packageName = name.substring(0, name.lastIndexOf('.') + 1);
+        String mapperName = packageName + name.substring(packageName.length()).replace('$', '_') + "_DbMapper";
+        try {
+            Class<?> mapperClass = Class.forName(mapperName, true, type.getClassLoader());
+            if (!DbEntityMapper.class.isAssignableFrom(mapperClass)) {
+                return NOT_GENERATED;
+            }
+            Constructor<?> constructor = mapperClass.getDeclaredConstructor();
+            makeAccessible(constructor);
+            return constructor.newInstance();
+        } catch (ClassNotFoundException e) {
+            return NOT_GENERATED;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            e.printStackTrace();
+            return NOT_GENERATED;
+        }
+    }
+
+    /**
+     * @param query   The query producing the columns, used as the cache key along with the type
+     * @param type
+     * @param columns The result's column labels, in order
+     * @return A mapper reading those columns by index
+     */
+    @SuppressWarnings("unchecked")
+    static <T> RowMapper<T> forQuery(String query, Class<T> type, String[] columns) {
+        PlanKey key = new PlanKey(query, type);
+        Plan<?> plan = plans.get(key);
+        if (plan == null || !plan.matches(columns)) {
+            DbEntityMapper<T> entityMapper = generated(type);
+            plan = entityMapper != null ? new GeneratedPlan<>(columns, entityMapper.forColumns(columns)) : model(type).plan(columns);
+            if (plans.size() < MAX_CACHED || plans.containsKey(key)) {
+                plans.put(key, plan);
+            }
+        }
+        return (RowMapper<T>) plan;
+    }
+
+    private static ClassModel model(Class<?> type) {
+        return models.computeIfAbsent(type, ClassModel::new);
+    }
+
+    /**
+     * Finds how to read a property of a bean, for binding named parameters. Getters, including is getters
+     * for booleans, are preferred, then accessors named like a field or record component, then fields.
+     *
+     * @param type
+     * @param property Normalized property name
+     * @return Handle taking the bean and returning the value as an Object, or null if there is no such property
+     */
+    static MethodHandle getter(Class<?> type, String property) {
+        return getters.computeIfAbsent(type, RowMappers::findGetters).get(property);
+    }
+
+    private static Map<String, MethodHandle> findGetters(Class<?> type) {
+        Map<String, MethodHandle> found = new HashMap<>();
+        Set<String> fields = new HashSet<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    fields.add(field.getName());
+                }
+            }
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Method method : c.getDeclaredMethods()) {
+                    String name = method.getName();
+                    if (method.getParameterCount() != 0 || method.getReturnType() == void.class
+                            || Modifier.isStatic(method.getModifiers()) || method.isBridge()) {
+                        continue;
+                    }
+                    String property = null;
+                    if (pass == 0 && name.length() > 3 && name.startsWith("get")) {
+                        property = name.substring(3);
+                    } else if (pass == 0 && name.length() > 2 && name.startsWith("is") && method.getReturnType() == boolean.class) {
+                        property = name.substring(2);
+                    } else if (pass == 1 && fields.contains(name)) {
+                        property = name;
+                    }
+                    if (property != null && !found.containsKey(normalize(property)) && makeAccessible(method)) {
+                        try {
+                            found.put(normalize(property), LOOKUP.unreflect(method).asType(MethodType.methodType(Object.class, Object.class)));
+                        } catch (IllegalAccessException ignored) {
+                        }
+                    }
+                }
+            }
+        }
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                String property = normalize(field.getName());
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()
+                        && !found.containsKey(property) && makeAccessible(field)) {
+                    try {
+                        found.put(property, LOOKUP.unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class)));
+                    } catch (IllegalAccessException ignored) {
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Normalizes a column label or property name so player_name, playerName and PLAYERNAME all match.
+     */
+    static String normalize(String name) {
+        return name.replace("_", "").toLowerCase(Locale.ROOT);
+    }
+
+    static Object read(ResultSet resultSet, int column, Class<?> type) throws SQLException {
+        if (!type.isPrimitive()) {
+            return convert(resultSet.getObject(column), type);
+        }
+        if (type == long.class) {
+            return resultSet.getLong(column);
+        } else if (type == int.class) {
+            return resultSet.getInt(column);
+        } else if (type == double.class) {
+            return resultSet.getDouble(column);
+        } else if (type == boolean.class) {
+            return resultSet.getBoolean(column);
+        } else if (type == float.class) {
+            return resultSet.getFloat(column);
+        } else if (type == short.class) {
+            return resultSet.getShort(column);
+        } else if (type == byte.class) {
+            return resultSet.getByte(column);
+        }
+        String value = resultSet.getString(column);
+        return value != null && !value.isEmpty() ? value.charAt(0) : '\0';
+    }
+
+    /**
+     * Converts a value as returned by the driver to the type of the property it is bound to.
+     * Values that need no or no known conversion are returned as is.
+     */
+    static Object convert(Object value, Class<?> type) {
+        if (value == null || type.isInstance(value)) {
+            return value;
+        }
+        if (value instanceof Number) {
+            Number number = (Number) value;
+            if (type == Long.class) {
+                return number.longValue();
+            } else if (type == Integer.class) {
+                return number.intValue();
+            } else if (type == Double.class) {
+                return number.doubleValue();
+            } else if (type == Float.class) {
+                return number.floatValue();
+            } else if (type == Short.class) {
+                return number.shortValue();
+            } else if (type == Byte.class) {
+                return number.byteValue();
+            } else if (type == Boolean.class) {
+                return number.doubleValue() != 0;
+            } else if (type == BigDecimal.class) {
+                return new BigDecimal(number.toString());
+            } else if (type == BigInteger.class) {
+                return new BigDecimal(number.toString()).toBigInteger();
+            }
+        }
+        if (type == String.class) {
+            return value instanceof byte[] ? new String((byte[]) value) : value.toString();
+        } else if (type.isEnum()) {
+            return enumValue(type, value.toString());
+        } else if (type == UUID.class) {
+            if (value instanceof byte[] && ((byte[]) value).length == 16) {
+                byte[] bytes = (byte[]) value;
+                long most = 0;
+                long least = 0;
+                for (int i = 0; i < 8; i++) {
+                    most = (most << 8) | (bytes[i] & 0xff);
+                    least = (least << 8) | (bytes[i + 8] & 0xff);
+                }
+                return new UUID(most, least);
+            }
+            return UUID.fromString(value.toString());
+        } else if (type == LocalDateTime.class && value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime();
+        } else if (type == Instant.class && value instanceof Timestamp) {
+            return ((Timestamp) value).toInstant();
+        } else if (type == LocalDate.class && value instanceof java.sql.Date) {
+            return ((java.sql.Date) value).toLocalDate();
+        } else if (type == LocalTime.class && value instanceof java.sql.Time) {
+            return ((java.sql.Time) value).toLocalTime();
+        } else if (type == Character.class && value instanceof String && !((String) value).isEmpty()) {
+            return ((String) value).charAt(0);
+        }
+        return value;
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+    }
+
+    private static Method method(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static boolean isRecord(Class<?> type) {
+        try {
+            return IS_RECORD != null && (Boolean) IS_RECORD.invoke(type);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    private static boolean makeAccessible(AccessibleObject member) {
+        try {
+            member.setAccessible(true);
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Lambdas are only spun for classes this library's class loader can see, as the generated class
+     * lives alongside this one.
+     */
+    private static boolean canSpin(Class<?> type) {
+        if (!Modifier.isPublic(type.getModifiers())) {
+            return false;
+        }
+        try {
+            return Class.forName(type.getName(), false, RowMappers.class.getClassLoader()) == type;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param iface Raw functional interface, whose parameterization is taken from the assignment
+     */
+    @SuppressWarnings("unchecked")
+    private static <F> F spin(Class<? super F> iface, String name, MethodType erased, MethodHandle impl) {
+        try {
+            MethodType instantiated = impl.type().wrap();
+            if (erased.returnType() == void.class) {
+                instantiated = instantiated.changeReturnType(void.class);
+            }
+            for (int i = 0; i < erased.parameterCount(); i++) {
+                if (erased.parameterType(i).isPrimitive()) {
+                    instantiated = instantiated.changeParameterType(i, erased.parameterType(i));
+                }
+            }
+            return (F) LambdaMetafactory.metafactory(LOOKUP, name, MethodType.methodType(iface), erased, impl, instantiated)
+                    .getTarget().invoke();
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumValue(Class<?> type, String name) {
+        return Enum.valueOf((Class) type, name);
+    }
+
+    private static SQLException rethrow(Throwable e) {
+        if (e instanceof SQLException) {
+            return (SQLException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new SQLException(e);
+    }
+
+    /**
+     * Writes one column of the current row into the object being mapped.
+     */
+    private interface Binder {
+        void bind(Object target, ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * A column binding plan for one class and one result layout.
+     */
+    private abstract static class Plan<T> implements RowMapper<T> {
+        private final String[] columns;
+
+        Plan(String[] columns) {
+            this.columns = columns.clone();
+        }
+
+        boolean matches(String[] columns) {
+            return Arrays.equals(this.columns, columns);
+        }
+    }
+
+    private static final class GeneratedPlan<T> extends Plan<T> {
+        private final RowMapper<T> mapper;
+
+        GeneratedPlan(String[] columns, RowMapper<T> mapper) {
+            super(columns);
+            this.mapper = mapper;
+        }
+
+        @Override
+        public T map(ResultSet resultSet) throws SQLException {
+            return mapper.map(resultSet);
+        }
+    }
+
+    private static final class SetterPlan<T> extends Plan<T> {
+        private final Supplier<Object> factory;
+        private final Binder[] binders;
+
+        SetterPlan(String[] columns, Supplier<Object> factory, Binder[] binders) {
+            super(columns);
+            this.factory = factory;
+            this.binders = binders;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T map(ResultSet resultSet) throws SQLException {
+            Object target = factory.get();
+            for (Binder binder : binders) {
+                binder.bind(target, resultSet);
+            }
+            return (T) target;
+        }
+    }
+
+    private static final class ConstructorPlan<T> extends Plan<T> {
+        private final MethodHandle constructor;
+        private final Class<?>[] types;
+        private final int[] sources;
+
+        /**
+         * @param constructor Taking an Object[] of arguments and returning Object
+         * @param sources     1-based column for each argument, or 0 for its default value
+         */
+        ConstructorPlan(String[] columns, MethodHandle constructor, Class<?>[] types, int[] sources) {
+            super(columns);
+            this.constructor = constructor;
+            this.types = types;
+            this.sources = sources;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T map(ResultSet resultSet) throws SQLException {
+            Object[] args = new Object[types.length];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = sources[i] > 0 ? read(resultSet, sources[i], types[i]) : defaultValue(types[i]);
+            }
+            try {
+                return (T) (Object) constructor.invokeExact(args);
+            } catch (Throwable e) {
+                throw rethrow(e);
+            }
+        }
+    }
+
+    /**
+     * What a class can bind columns to, independent of any particular result.
+     */
+    private static final class ClassModel {
+        private final Class<?> type;
+        private final boolean spin;
+        private Supplier<Object> factory;
+        private final Map<String, MethodHandle> setters = new HashMap<>();
+        private final Map<String, Boolean> spinnable = new HashMap<>();
+        private Constructor<?>[] constructors;
+        private String[][] names;
+
+        ClassModel(Class<?> type) {
+            this.type = type;
+            this.spin = canSpin(type);
+            if (isRecord(type)) {
+                initRecord();
+                return;
+            }
+            Constructor<?> noArgs = null;
+            for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+                if (constructor.getParameterCount() == 0) {
+                    noArgs = constructor;
+                }
+            }
+            if (noArgs != null && makeAccessible(noArgs)) {
+                initSetters(noArgs);
+            } else {
+                initConstructors();
+            }
+        }
+
+        private void initRecord() {
+            try {
+                Object[] components = (Object[]) GET_RECORD_COMPONENTS.invoke(type);
+                String[] componentNames = new String[components.length];
+                Class<?>[] componentTypes = new Class<?>[components.length];
+                for (int i = 0; i < components.length; i++) {
+                    componentNames[i] = normalize((String) components[i].getClass().getMethod("getName").invoke(components[i]));
+                    componentTypes[i] = (Class<?>) components[i].getClass().getMethod("getType").invoke(components[i]);
+                }
+                Constructor<?> canonical = type.getDeclaredConstructor(componentTypes);
+                makeAccessible(canonical);
+                constructors = new Constructor<?>[]{canonical};
+                names = new String[][]{componentNames};
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Can not map to record " + type.getName(), e);
+            }
+        }
+
+        private void initSetters(Constructor<?> noArgs) {
+            try {
+                MethodHandle constructor = LOOKUP.unreflectConstructor(noArgs);
+                Supplier<Object> spun = spin ? spin(Supplier.class, "get", MethodType.methodType(Object.class), constructor) : null;
+                if (spun != null) {
+                    factory = spun;
+                } else {
+                    MethodHandle generic = constructor.asType(MethodType.methodType(Object.class));
+                    factory = () -> {
+                        try {
+                            return generic.invokeExact();
+                        } catch (Throwable e) {
+                            throw new IllegalStateException("Could not create " + type.getName(), e);
+                        }
+                    };
+                }
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Can not construct " + type.getName(), e);
+            }
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Method method : c.getDeclaredMethods()) {
+                    String name = method.getName();
+                    if (name.length() > 3 && name.startsWith("set") && method.getParameterCount() == 1
+                            && !Modifier.isStatic(method.getModifiers()) && !method.isBridge()) {
+                        String property = normalize(name.substring(3));
+                        if (!setters.containsKey(property) && makeAccessible(method)) {
+                            try {
+                                setters.put(property, LOOKUP.unreflect(method));
+                                spinnable.put(property, spin && Modifier.isPublic(method.getModifiers()));
+                            } catch (IllegalAccessException ignored) {
+                            }
+                        }
+                    }
+                }
+            }
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    String property = normalize(field.getName());
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && !field.isSynthetic()
+                            && !setters.containsKey(property) && makeAccessible(field)) {
+                        try {
+                            setters.put(property, LOOKUP.unreflectSetter(field));
+                            spinnable.put(property, false);
+                        } catch (IllegalAccessException ignored) {
+                        }
+                    }
+                }
+            }
+        }
+
+        private void initConstructors() {
+            constructors = type.getDeclaredConstructors();
+            names = new String[constructors.length][];
+            for (int i = 0; i < constructors.length; i++) {
+                Parameter[] parameters = constructors[i].getParameters();
+                if (parameters.length > 0 && parameters[0].isNamePresent()) {
+                    names[i] = new String[parameters.length];
+                    for (int j = 0; j < parameters.length; j++) {
+                        names[i][j] = normalize(parameters[j].getName());
+                    }
+                }
+            }
+        }
+
+        <T> Plan<T> plan(String[] columns) {
+            return factory != null ? setterPlan(columns) : constructorPlan(columns);
+        }
+
+        private <T> Plan<T> setterPlan(String[] columns) {
+            Map<String, Integer> bound = new HashMap<>();
+            for (int i = 0; i < columns.length; i++) {
+                // Like DbRow, a repeated label resolves to its first column
+                if (setters.containsKey(normalize(columns[i]))) {
+                    bound.putIfAbsent(normalize(columns[i]), i + 1);
+                }
+            }
+            Binder[] binders = new Binder[bound.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : bound.entrySet()) {
+                binders[i++] = binder(setters.get(entry.getKey()), spinnable.get(entry.getKey()), entry.getValue());
+            }
+            return new SetterPlan<>(columns, factory, binders);
+        }
+
+        private Binder binder(MethodHandle setter, boolean spin, int column) {
+            Class<?> type = setter.type().parameterType(1);
+            if (type == long.class) {
+                MethodType erased = MethodType.methodType(void.class, Object.class, long.class);
+                ObjLongConsumer<Object> spun = spin ? spin(ObjLongConsumer.class, "accept", erased, setter) : null;
+                if (spun != null) {
+                    return (target, resultSet) -> spun.accept(target, resultSet.getLong(column));
+                }
+                MethodHandle generic = setter.asType(erased);
+                return (target, resultSet) -> {
+                    try {
+                        generic.invokeExact(target, resultSet.getLong(column));
+                    } catch (Throwable e) {
+                        throw rethrow(e);
+                    }
+                };
+            } else if (type == int.class) {
+                MethodType erased = MethodType.methodType(void.class, Object.class, int.class);
+                ObjIntConsumer<Object> spun = spin ? spin(ObjIntConsumer.class, "accept", erased, setter) : null;
+                if (spun != null) {
+                    return (target, resultSet) -> spun.accept(target, resultSet.getInt(column));
+                }
+                MethodHandle generic = setter.asType(erased);
+                return (target, resultSet) -> {
+                    try {
+                        generic.invokeExact(target, resultSet.getInt(column));
+                    } catch (Throwable e) {
+                        throw rethrow(e);
+                    }
+                };
+            } else if (type == double.class) {
+                MethodType erased = MethodType.methodType(void.class, Object.class, double.class);
+                ObjDoubleConsumer<Object> spun = spin ? spin(ObjDoubleConsumer.class, "accept", erased, setter) : null;
+                if (spun != null) {
+                    return (target, resultSet) -> spun.accept(target, resultSet.getDouble(column));
+                }
+                MethodHandle generic = setter.asType(erased);
+                return (target, resultSet) -> {
+                    try {
+                        generic.invokeExact(target, resultSet.getDouble(column));
+                    } catch (Throwable e) {
+                        throw rethrow(e);
+                    }
+                };
+            }
+            MethodType erased = MethodType.methodType(void.class, Object.class, Object.class);
+            BiConsumer<Object, Object> spun = spin ? spin(BiConsumer.class, "accept", erased, setter) : null;
+            if (spun != null) {
+                return (target, resultSet) -> spun.accept(target, read(resultSet, column, type));
+            }
+            MethodHandle generic = setter.asType(erased);
+            return (target, resultSet) -> {
+                try {
+                    generic.invokeExact(target, read(resultSet, column, type));
+                } catch (Throwable e) {
+                    throw rethrow(e);
+                }
+            };
+        }
+
+        private <T> Plan<T> constructorPlan(String[] columns) {
+            Map<String, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < columns.length; i++) {
+                indexes.putIfAbsent(normalize(columns[i]), i + 1);
+            }
+            // Prefer the largest constructor fully covered by the columns. A sole constructor,
+            // such as a record's, may also be partially covered, the rest getting default values.
+            Constructor<?> chosen = null;
+            int[] sources = null;
+            for (int i = 0; i < constructors.length; i++) {
+                if (names[i] == null) {
+                    continue;
+                }
+                int[] candidate = new int[names[i].length];
+                int matched = 0;
+                for (int j = 0; j < candidate.length; j++) {
+                    Integer column = indexes.get(names[i][j]);
+                    if (column != null) {
+                        candidate[j] = column;
+                        matched++;
+                    }
+                }
+                boolean usable = matched == candidate.length || (constructors.length == 1 && matched > 0);
+                if (usable && (sources == null || candidate.length > sources.length)) {
+                    chosen = constructors[i];
+                    sources = candidate;
+                }
+            }
+            for (int i = 0; i < constructors.length && chosen == null; i++) {
+                if (constructors[i].getParameterCount() == columns.length) {
+                    chosen = constructors[i];
+                    sources = new int[columns.length];
+                    for (int j = 0; j < sources.length; j++) {
+                        sources[j] = j + 1;
+                    }
+                }
+            }
+            if (chosen == null || !makeAccessible(chosen)) {
+                throw new IllegalArgumentException("No constructor of " + type.getName() + " matches columns " + Arrays.toString(columns));
+            }
+            try {
+                MethodHandle constructor = LOOKUP.unreflectConstructor(chosen)
+                        .asSpreader(Object[].class, chosen.getParameterCount())
+                        .asType(MethodType.methodType(Object.class, Object[].class));
+                return new ConstructorPlan<>(columns, constructor, chosen.getParameterTypes(), sources);
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Can not construct " + type.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Mapper for use outside of a DbStatement, resolving the plan from the result set's metadata
+     * once per result set.
+     */
+    private static final class ClassMapper<T> implements RowMapper<T> {
+        private final Class<T> type;
+        private volatile Bound<T> last;
+
+        @SuppressWarnings("unchecked")
+        ClassMapper(Class<?> type) {
+            this.type = (Class<T>) type;
+        }
+
+        @Override
+        public T map(ResultSet resultSet) throws SQLException {
+            Bound<T> bound = last;
+            if (bound == null || bound.resultSet.get() != resultSet) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                String[] columns = new String[metaData.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = metaData.getColumnLabel(i + 1);
+                }
+                Plan<T> plan = bound != null && bound.plan.matches(columns) ? bound.plan : model(type).plan(columns);
+                bound = new Bound<>(resultSet, plan);
+                last = bound;
+            }
+            return bound.plan.map(resultSet);
+        }
+    }
+
+    private static final class Bound<T> {
+        private final WeakReference<ResultSet> resultSet;
+        private final Plan<T> plan;
+
+        Bound(ResultSet resultSet, Plan<T> plan) {
+            this.resultSet = new WeakReference<>(resultSet);
+            this.plan = plan;
+        }
+    }
+
+    private static final class PlanKey {
+        private final String query;
+        private final Class<?> type;
+
+        PlanKey(String query, Class<?> type) {
+            this.query = query;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey other = (PlanKey) o;
+            return type == other.type && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, type);
+        }
+    }
+}
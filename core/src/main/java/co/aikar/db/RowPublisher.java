@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Publishes the rows of a query, reading them from the cursor on the DB executor only as fast as the
+ * subscriber requests them.
+ * <p/>
+ * The statement is opened on the first request, and closed, returning its connection to the pool,
+ * on completion, error or cancel.
+ *
+ * @param <T>
+ */
+final class RowPublisher<T> implements DbFlow.Publisher<T> {
+    private final Opener opener;
+    private final Function<DbStatement, RowMapper<T>> mapperFactory;
+    private final boolean reusable;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param opener        Opens and executes the statement to publish
+     * @param mapperFactory Creates the mapper for the executed statement
+     * @param reusable      Whether each subscriber gets its own statement, or there can only be one subscriber
+     */
+    RowPublisher(Opener opener, Function<DbStatement, RowMapper<T>> mapperFactory, boolean reusable) {
+        this.opener = opener;
+        this.mapperFactory = mapperFactory;
+        this.reusable = reusable;
+    }
+
+    @Override
+    public void subscribe(DbFlow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!reusable && !subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new DbFlow.Subscription() {
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("This statement's results have already been subscribed to"));
+            return;
+        }
+        subscriber.onSubscribe(new RowSubscription(subscriber));
+    }
+
+    @FunctionalInterface
+    interface Opener {
+        DbStatement open() throws SQLException;
+    }
+
+    /**
+     * Only one thread drains at a time: whoever moves the work counter off zero schedules a drain,
+     * and the drain loops until every signal that arrived meanwhile has been handled.
+     */
+    private final class RowSubscription implements DbFlow.Subscription {
+        private final DbFlow.Subscriber<? super T> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile String invalidRequest;
+        private DbStatement statement;
+        private RowMapper<T> mapper;
+        private boolean finished;
+
+        private RowSubscription(DbFlow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = "Requested " + n + " rows, must be positive";
+                cancelled = true;
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            signal();
+        }
+
+        private void signal() {
+            if (work.getAndIncrement() == 0) {
+                try {
+                    DB.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Nothing is draining, so the subscription can be ended here
+                    finish();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!deliver()) {
+                    return;
+                }
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * @return false once the subscription is finished
+         */
+        private boolean deliver() {
+            if (finished) {
+                return false;
+            }
+            if (cancelled) {
+                finish();
+                if (invalidRequest != null) {
+                    subscriber.onError(new IllegalArgumentException(invalidRequest));
+                }
+                return false;
+            }
+            long requested = demand.get();
+            if (requested == 0) {
+                return true;
+            }
+            long delivered = 0;
+            try {
+                if (statement == null) {
+                    statement = opener.open();
+                    mapper = mapperFactory.apply(statement);
+                }
+                while (delivered < requested && !cancelled) {
+                    T row = statement.getNextRow(mapper);
+                    if (row == null) {
+                        finish();
+                        subscriber.onComplete();
+                        return false;
+                    }
+                    if (!onNext(row)) {
+                        return false;
+                    }
+                    delivered++;
+                }
+            } catch (SQLException | RuntimeException e) {
+                finish();
+                subscriber.onError(e);
+                return false;
+            }
+            if (requested != Long.MAX_VALUE) {
+                demand.addAndGet(-delivered);
+            }
+            if (cancelled) {
+                return deliver();
+            }
+            return true;
+        }
+
+        /**
+         * A subscriber throwing from onNext is treated as having cancelled.
+         */
+        private boolean onNext(T row) {
+            try {
+                subscriber.onNext(row);
+                return true;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                finish();
+                return false;
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            if (statement == null && !reusable) {
+                // Never requested from, but the statement handed to us still needs closing
+                try {
+                    statement = opener.open();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (statement != null) {
+                statement.close();
+                statement = null;
+            }
+        }
+    }
+}
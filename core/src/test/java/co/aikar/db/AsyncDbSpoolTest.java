@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import co.aikar.db.AsyncDbStatement.Priority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.sql.SQLTransactionRollbackException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncDbSpoolTest {
+    private static final String QUERY = "UPDATE t SET a = ? WHERE id = ?";
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("db-spool").toFile();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() throws IOException {
+        UUID key = UUID.randomUUID();
+        Object[] params = {null, "text", 1, 2L, 3.5d, 4.5f, (short) 6, (byte) 7, new BigDecimal("8.25"),
+                new BigInteger("123456789012345678901234567890"), true, new byte[]{1, 2, 3},
+                LocalDateTime.of(2020, 1, 2, 3, 4, 5), LocalDate.of(2020, 1, 2), LocalTime.of(3, 4, 5), UUID.randomUUID()};
+        AsyncDbUpdate update = new AsyncDbUpdate(QUERY, key, Priority.LOW, params);
+
+        AsyncDbUpdate decoded = AsyncDbSpool.decode(AsyncDbSpool.encode(update));
+
+        assertEquals(QUERY, decoded.query);
+        assertEquals(key, decoded.getOrderingKey());
+        assertEquals(Priority.LOW, decoded.getPriority());
+        assertEquals(params.length, decoded.params.length);
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] instanceof byte[]) {
+                assertArrayEquals((byte[]) params[i], (byte[]) decoded.params[i]);
+            } else {
+                assertEquals(params[i], decoded.params[i]);
+            }
+        }
+    }
+
+    @Test
+    public void reopenReplaysInOrder() {
+        AsyncDbSpool spool = new AsyncDbSpool(directory);
+        spool.append(update(2));
+        spool.append(update(3));
+        spool.prepend(Arrays.asList(update(0), update(1)));
+        spool.close();
+
+        AsyncDbSpool reopened = new AsyncDbSpool(directory);
+        assertEquals(4, reopened.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, reopened.poll().params[0]);
+        }
+        assertNull(reopened.poll());
+        reopened.close();
+    }
+
+    @Test
+    public void tornRecordEndsItsSegment() throws IOException {
+        AsyncDbSpool spool = new AsyncDbSpool(directory);
+        for (int i = 0; i < 3; i++) {
+            spool.append(update(i));
+        }
+        spool.close();
+
+        // Corrupt the payload of the second record, as a crash mid-write would
+        int recordSize = 8 + AsyncDbSpool.encode(update(0)).length;
+        File[] files = directory.listFiles();
+        assertEquals(1, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.seek(recordSize + 8);
+            int b = file.read();
+            file.seek(recordSize + 8);
+            file.write(b ^ 0xFF);
+        }
+
+        AsyncDbSpool reopened = new AsyncDbSpool(directory);
+        assertEquals(1, reopened.size());
+        assertEquals(0, reopened.poll().params[0]);
+        assertNull(reopened.poll());
+        reopened.close();
+    }
+
+    @Test
+    public void unackedRecordsAreReplayed() {
+        AsyncDbSpool spool = new AsyncDbSpool(directory);
+        for (int i = 0; i < 3; i++) {
+            spool.append(update(i));
+        }
+        spool.poll();
+        spool.poll().complete(1);
+        spool.close();
+
+        // The first record was read but never completed, the second completed out of order
+        AsyncDbSpool reopened = new AsyncDbSpool(directory);
+        assertEquals(2, reopened.size());
+        assertEquals(0, reopened.poll().params[0]);
+        assertEquals(2, reopened.poll().params[0]);
+        reopened.close();
+    }
+
+    @Test
+    public void failedRecordsAreAcked() {
+        AsyncDbSpool spool = new AsyncDbSpool(directory);
+        spool.append(update(0));
+        spool.poll().onError(new SQLTransactionRollbackException("deadlock"));
+        spool.close();
+
+        assertEquals(0, new AsyncDbSpool(directory).size());
+    }
+
+    @Test
+    public void segmentIsDeletedOnceAcked() {
+        AsyncDbSpool spool = new AsyncDbSpool(directory);
+        spool.append(update(0));
+        spool.append(update(1));
+        AsyncDbUpdate first = spool.poll();
+        AsyncDbUpdate second = spool.poll();
+        assertTrue(spool.isEmpty());
+
+        first.complete(1);
+        assertEquals(1, directory.listFiles().length);
+        second.complete(1);
+        assertEquals(0, directory.listFiles().length);
+        spool.close();
+    }
+
+    private static AsyncDbUpdate update(int value) {
+        return new AsyncDbUpdate(QUERY, "key", Priority.NORMAL, value, 1L);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DbInListTest {
+
+    @After
+    public void resetMaxSize() {
+        DbInList.start(new DbOptions());
+    }
+
+    @Test
+    public void padsToPowerOfTwo() throws SQLException {
+        List<Object[]> calls = run("SELECT * FROM t WHERE a = ? AND id IN (?) AND b = ?", "x", Arrays.asList(1, 2, 3), "y");
+        assertEquals(1, calls.size());
+        assertEquals("SELECT * FROM t WHERE a = ? AND id IN (?, ?, ?, ?) AND b = ?", calls.get(0)[0]);
+        assertArrayEquals(new Object[]{"x", 1, 2, 3, 3, "y"}, (Object[]) calls.get(0)[1]);
+    }
+
+    @Test
+    public void skipsQuotedStringsAndComments() throws SQLException {
+        List<Object[]> calls = run("SELECT '?', \"?\", `?`, 'it\\'s ?' -- ?\nFROM t # ?\nWHERE /* ? */ id IN (?)", Arrays.asList(1, 2));
+        assertEquals("SELECT '?', \"?\", `?`, 'it\\'s ?' -- ?\nFROM t # ?\nWHERE /* ? */ id IN (?, ?)", calls.get(0)[0]);
+    }
+
+    @Test
+    public void keepsCasts() throws SQLException {
+        List<Object[]> calls = run("SELECT a::text FROM t WHERE id IN (?)", Arrays.asList(1, 2));
+        assertEquals("SELECT a::text FROM t WHERE id IN (?, ?)", calls.get(0)[0]);
+    }
+
+    @Test
+    public void splitsIntoChunks() throws SQLException {
+        DbInList.start(new DbOptions().setInListMaxSize(4));
+        List<Object[]> calls = run("SELECT * FROM t WHERE id IN (?)", Arrays.asList(1, 2, 3, 4, 5));
+        assertEquals(2, calls.size());
+        assertArrayEquals(new Object[]{1, 2, 3, 4}, (Object[]) calls.get(0)[1]);
+        assertArrayEquals(new Object[]{5}, (Object[]) calls.get(1)[1]);
+    }
+
+    @Test
+    public void followsChangedMaxSize() throws SQLException {
+        String query = "SELECT * FROM t WHERE id IN (?)";
+        List<Integer> values = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+        for (int max : new int[]{6, 5}) {
+            DbInList.start(new DbOptions().setInListMaxSize(max));
+            Object[] call = run(query, values).get(0);
+            assertEquals(max, ((Object[]) call[1]).length);
+            assertEquals(max, placeholders((String) call[0]));
+        }
+    }
+
+    @Test
+    public void emptyRunsNothing() throws SQLException {
+        assertTrue(run("SELECT * FROM t WHERE id IN (?)", Collections.emptyList()).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingCollection() throws SQLException {
+        run("SELECT * FROM t WHERE id IN (?)", 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTwoCollections() throws SQLException {
+        run("SELECT * FROM t WHERE id IN (?) AND b IN (?)", Arrays.asList(1), Arrays.asList(2));
+    }
+
+    private static List<Object[]> run(String query, Object... params) throws SQLException {
+        List<Object[]> calls = new ArrayList<>();
+        DbInList.forEachChunk(query, params, (sql, args) -> calls.add(new Object[]{sql, args}));
+        return calls;
+    }
+
+    private static int placeholders(String sql) {
+        return sql.length() - sql.replace("?", "").length();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class DbNamedQueryTest {
+
+    @Test
+    public void replacesNamesInOrder() {
+        DbNamedQuery query = DbNamedQuery.of("UPDATE t SET a = :a, b = :b_2 WHERE id = :id");
+        assertEquals("UPDATE t SET a = ?, b = ? WHERE id = ?", query.getSql());
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("id", 3);
+        params.put("a", 1);
+        params.put("b_2", null);
+        assertArrayEquals(new Object[]{1, null, 3}, query.values(params));
+    }
+
+    @Test
+    public void skipsQuotedStrings() {
+        DbNamedQuery query = DbNamedQuery.of("SELECT ':a', \":b\", `:c`, 'it\\'s :d' FROM t WHERE id = :id");
+        assertEquals("SELECT ':a', \":b\", `:c`, 'it\\'s :d' FROM t WHERE id = ?", query.getSql());
+        assertEquals(1, query.values(singleton("id", 1)).length);
+    }
+
+    @Test
+    public void skipsComments() {
+        DbNamedQuery query = DbNamedQuery.of("SELECT a -- :x\nFROM t # :y\nWHERE /* :z ? */ id = :id");
+        assertEquals("SELECT a -- :x\nFROM t # :y\nWHERE /* :z ? */ id = ?", query.getSql());
+        assertEquals(1, query.values(singleton("id", 1)).length);
+    }
+
+    @Test
+    public void keepsCastsAndAssignments() {
+        DbNamedQuery query = DbNamedQuery.of("SELECT @n := a::text, b FROM t WHERE id = :id::int");
+        assertEquals("SELECT @n := a::text, b FROM t WHERE id = ?::int", query.getSql());
+        assertEquals(1, query.values(singleton("id", 1)).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPositionalParameters() {
+        DbNamedQuery.of("SELECT * FROM t WHERE id = :id AND a = ?");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingValues() {
+        DbNamedQuery.of("SELECT * FROM t WHERE id = :id").values(new HashMap<String, Object>());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNullBean() {
+        DbNamedQuery.of("SELECT * FROM t WHERE id = :id").values((Object) null);
+    }
+
+    private static Map<String, Object> singleton(String name, Object value) {
+        Map<String, Object> params = new HashMap<>();
+        params.put(name, value);
+        return params;
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2016-2017 Daniel Ennis (Aikar) - MIT License
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining
+ *  a copy of this software and associated documentation files (the
+ *  "Software"), to deal in the Software without restriction, including
+ *  without limitation the rights to use, copy, modify, merge, publish,
+ *  distribute, sublicense, and/or sell copies of the Software, and to
+ *  permit persons to whom the Software is furnished to do so, subject to
+ *  the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be
+ *  included in all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ *  LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ *  OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ *  WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package co.aikar.db.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a co.aikar.db.DbEntityMapper for every class or record annotated with co.aikar.db.DbEntity.
+ * <p/>
+ * The generated mapper reads columns with the ResultSet getter for the property's type and binds them
+ * with the matching PreparedStatement setter, through plain field, accessor and constructor calls.
+ * Properties without a dedicated getter are read through DbEntityMapper.read, which converts the same
+ * way the reflective RowMapper does.
+ */
+@SupportedAnnotationTypes({DbEntityProcessor.DB_ENTITY, DbEntityProcessor.DB_COLUMN})
+public class DbEntityProcessor extends AbstractProcessor {
+    static final String DB_ENTITY = "co.aikar.db.DbEntity";
+    static final String DB_COLUMN = "co.aikar.db.DbColumn";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(DB_ENTITY);
+        if (annotation == null) {
+            return false;
+        }
+        for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (element.getKind() != ElementKind.CLASS && !isRecord(element)) {
+                error(element, "@DbEntity must be placed on a class or record");
+                continue;
+            }
+            try {
+                Entity entity = new Entity((TypeElement) element);
+                if (entity.valid) {
+                    entity.write();
+                }
+            } catch (IOException e) {
+                error(element, "Could not write mapper: " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private static boolean isRecord(Element element) {
+        return element.getKind().name().equals("RECORD");
+    }
+
+    private void error(Element element, String message) {
+        Messager messager = processingEnv.getMessager();
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * A column of an entity: how to read it from a result and how to get and set it on the entity.
+     */
+    private static final class Property {
+        private final String column;
+        private final TypeMirror type;
+        private final String getter;
+        private final String setter;
+
+        Property(String column, TypeMirror type, String getter, String setter) {
+            this.column = column;
+            this.type = type;
+            this.getter = getter;
+            this.setter = setter;
+        }
+    }
+
+    private final class Entity {
+        private final Elements elements = processingEnv.getElementUtils();
+        private final Types types = processingEnv.getTypeUtils();
+        private final TypeElement type;
+        private final boolean record;
+        private final String packageName;
+        private final String mapperName;
+        private final String typeName;
+        private final List<Property> properties = new ArrayList<>();
+        private boolean valid = true;
+
+        Entity(TypeElement type) {
+            this.type = type;
+            this.record = isRecord(type);
+            this.packageName = elements.getPackageOf(type).getQualifiedName().toString();
+            this.typeName = type.getQualifiedName().toString();
+            String nested = packageName.isEmpty() ? typeName : typeName.substring(packageName.length() + 1);
+            this.mapperName = nested.replace('.', '_') + "_DbMapper";
+
+            if (type.getModifiers().contains(Modifier.PRIVATE)) {
+                fail(type, "@DbEntity classes can not be private");
+            }
+            if (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC) && !record) {
+                fail(type, "Nested @DbEntity classes must be static");
+            }
+            if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+                fail(type, "@DbEntity classes can not be abstract");
+            }
+            if (!record && !hasNoArgsConstructor()) {
+                fail(type, "@DbEntity classes need a non-private no-arg constructor");
+            }
+            collect(type);
+        }
+
+        private void fail(Element element, String message) {
+            error(element, message);
+            valid = false;
+        }
+
+        private boolean hasNoArgsConstructor() {
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+                if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void collect(TypeElement current) {
+            TypeMirror superclass = current.getSuperclass();
+            if (!record && superclass.getKind() == TypeKind.DECLARED) {
+                TypeElement parent = (TypeElement) ((DeclaredType) superclass).asElement();
+                if (!parent.getQualifiedName().contentEquals("java.lang.Object")) {
+                    collect(parent);
+                }
+            }
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                String name = field.getSimpleName().toString();
+                String column = columnName(field);
+                if (record) {
+                    properties.add(new Property(column, field.asType(), name + "()", null));
+                    continue;
+                }
+                boolean accessible = isAccessible(current, modifiers);
+                String getter = accessible ? name : accessor(current, field, true);
+                String setter = accessible && !modifiers.contains(Modifier.FINAL) ? name + " = " : accessor(current, field, false);
+                if (getter == null || setter == null) {
+                    fail(field, "Field " + name + " needs to be accessible and non-final, or have an accessible getter and setter");
+                    continue;
+                }
+                properties.add(new Property(column, field.asType(), getter, setter));
+            }
+        }
+
+        /**
+         * @return Whether the generated mapper, which lives in the entity's package, can access the member
+         */
+        private boolean isAccessible(TypeElement owner, Set<Modifier> modifiers) {
+            return modifiers.contains(Modifier.PUBLIC) || (!modifiers.contains(Modifier.PRIVATE)
+                    && elements.getPackageOf(owner).getQualifiedName().contentEquals(packageName));
+        }
+
+        /**
+         * @return The getter call, or the setter call up to its argument, or null if there is none
+         */
+        private String accessor(TypeElement owner, VariableElement field, boolean get) {
+            String name = field.getSimpleName().toString();
+            String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            for (ExecutableElement method : ElementFilter.methodsIn(owner.getEnclosedElements())) {
+                Set<Modifier> modifiers = method.getModifiers();
+                if (!isAccessible(owner, modifiers) || modifiers.contains(Modifier.STATIC)) {
+                    continue;
+                }
+                String methodName = method.getSimpleName().toString();
+                if (get && method.getParameters().isEmpty() && types.isSameType(method.getReturnType(), field.asType())
+                        && (methodName.equals("get" + suffix) || (methodName.equals("is" + suffix) && field.asType().getKind() == TypeKind.BOOLEAN))) {
+                    return methodName + "()";
+                }
+                if (!get && methodName.equals("set" + suffix) && method.getParameters().size() == 1
+                        && types.isSameType(method.getParameters().get(0).asType(), field.asType())) {
+                    return methodName + "(";
+                }
+            }
+            return null;
+        }
+
+        private String columnName(VariableElement field) {
+            for (AnnotationMirror mirror : field.getAnnotationMirrors()) {
+                if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(DB_COLUMN)) {
+                    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+                        if (entry.getKey().getSimpleName().contentEquals("value")) {
+                            return (String) entry.getValue().getValue();
+                        }
+                    }
+                }
+            }
+            return field.getSimpleName().toString();
+        }
+
+        private String erased(TypeMirror mirror) {
+            return types.erasure(mirror).toString();
+        }
+
+        private boolean isString(TypeMirror mirror) {
+            return mirror.getKind() == TypeKind.DECLARED && erased(mirror).equals("java.lang.String");
+        }
+
+        private boolean isBytes(TypeMirror mirror) {
+            return mirror.getKind() == TypeKind.ARRAY && erased(mirror).equals("byte[]");
+        }
+
+        private boolean isEnum(TypeMirror mirror) {
+            return mirror.getKind() == TypeKind.DECLARED && ((DeclaredType) mirror).asElement().getKind() == ElementKind.ENUM;
+        }
+
+        /**
+         * @return The ResultSet getter suffix for the type, or null if it is read through DbEntityMapper.read
+         */
+        private String jdbcType(TypeMirror mirror) {
+            switch (mirror.getKind()) {
+                case LONG:
+                    return "Long";
+                case INT:
+                    return "Int";
+                case DOUBLE:
+                    return "Double";
+                case FLOAT:
+                    return "Float";
+                case SHORT:
+                    return "Short";
+                case BYTE:
+                    return "Byte";
+                case BOOLEAN:
+                    return "Boolean";
+                default:
+                    if (isString(mirror)) {
+                        return "String";
+                    } else if (isBytes(mirror)) {
+                        return "Bytes";
+                    }
+                    return null;
+            }
+        }
+
+        private String readExpression(Property property, String index) {
+            String jdbcType = jdbcType(property.type);
+            if (jdbcType != null) {
+                return "resultSet.get" + jdbcType + "(" + index + ")";
+            }
+            return "read(resultSet, " + index + ", " + erased(property.type) + ".class)";
+        }
+
+        private String defaultValue(TypeMirror mirror) {
+            switch (mirror.getKind()) {
+                case LONG:
+                    return "0L";
+                case INT:
+                    return "0";
+                case DOUBLE:
+                    return "0D";
+                case FLOAT:
+                    return "0F";
+                case SHORT:
+                    return "(short) 0";
+                case BYTE:
+                    return "(byte) 0";
+                case BOOLEAN:
+                    return "false";
+                case CHAR:
+                    return "'\\0'";
+                default:
+                    return "null";
+            }
+        }
+
+        private String bindStatement(Property property, int parameter, String value) {
+            TypeMirror mirror = property.type;
+            String jdbcType = jdbcType(mirror);
+            if (jdbcType != null) {
+                return "statement.set" + jdbcType + "(" + parameter + ", " + value + ");";
+            } else if (mirror.getKind() == TypeKind.CHAR) {
+                return "statement.setString(" + parameter + ", String.valueOf(" + value + "));";
+            } else if (isEnum(mirror)) {
+                return "statement.setString(" + parameter + ", " + value + " != null ? " + value + ".name() : null);";
+            } else if (erased(mirror).equals("java.util.UUID")) {
+                return "statement.setString(" + parameter + ", " + value + " != null ? " + value + ".toString() : null);";
+            }
+            return "statement.setObject(" + parameter + ", " + value + ");";
+        }
+
+        private String literal(String value) {
+            StringBuilder builder = new StringBuilder("\"");
+            for (char c : value.toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    builder.append('\\');
+                }
+                builder.append(c);
+            }
+            return builder.append('"').toString();
+        }
+
+        void write() throws IOException {
+            StringBuilder out = new StringBuilder();
+            if (!packageName.isEmpty()) {
+                out.append("package ").append(packageName).append(";\n\n");
+            }
+            out.append("import co.aikar.db.DbEntityMapper;\n");
+            out.append("import java.sql.PreparedStatement;\n");
+            out.append("import java.sql.ResultSet;\n");
+            out.append("import java.sql.SQLException;\n\n");
+            out.append("/**\n * Generated by db-processor from {@link ").append(typeName).append("}. Do not edit.\n */\n");
+            out.append("@SuppressWarnings({\"unchecked\", \"rawtypes\"})\n");
+            out.append("public final class ").append(mapperName).append(" extends DbEntityMapper<").append(typeName).append("> {\n");
+
+            out.append("    public ").append(mapperName).append("() {\n        super(");
+            for (int i = 0; i < properties.size(); i++) {
+                out.append(i > 0 ? ", " : "").append(literal(properties.get(i).column));
+            }
+            out.append(");\n    }\n\n");
+
+            out.append("    @Override\n");
+            out.append("    protected ").append(typeName).append(" map(ResultSet resultSet, int[] indexes) throws SQLException {\n");
+            if (record) {
+                for (int i = 0; i < properties.size(); i++) {
+                    Property property = properties.get(i);
+                    out.append("        ").append(erased(property.type)).append(" c").append(i).append(" = indexes[").append(i)
+                            .append("] != 0 ? ").append(readExpression(property, "indexes[" + i + "]"))
+                            .append(" : ").append(defaultValue(property.type)).append(";\n");
+                }
+                out.append("        return new ").append(typeName).append("(");
+                for (int i = 0; i < properties.size(); i++) {
+                    out.append(i > 0 ? ", " : "").append("c").append(i);
+                }
+                out.append(");\n");
+            } else {
+                out.append("        ").append(typeName).append(" entity = new ").append(typeName).append("();\n");
+                for (int i = 0; i < properties.size(); i++) {
+                    Property property = properties.get(i);
+                    String read = readExpression(property, "indexes[" + i + "]");
+                    out.append("        if (indexes[").append(i).append("] != 0) {\n");
+                    out.append("            entity.").append(property.setter).append(read)
+                            .append(property.setter.endsWith("(") ? ");\n" : ";\n");
+                    out.append("        }\n");
+                }
+                out.append("        return entity;\n");
+            }
+            out.append("    }\n\n");
+
+            out.append("    @Override\n");
+            out.append("    public void bind(PreparedStatement statement, ").append(typeName).append(" value) throws SQLException {\n");
+            for (int i = 0; i < properties.size(); i++) {
+                out.append("        ").append(bindStatement(properties.get(i), i + 1, "value." + properties.get(i).getter)).append("\n");
+            }
+            out.append("    }\n");
+            out.append("}\n");
+
+            String qualifiedName = packageName.isEmpty() ? mapperName : packageName + "." + mapperName;
+            try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+                writer.write(out.toString());
+            }
+        }
+    }
+}